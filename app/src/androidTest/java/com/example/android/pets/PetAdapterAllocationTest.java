@@ -0,0 +1,87 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.ContextThemeWrapper;
+import android.widget.FrameLayout;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that binding a catalog row allocates nothing once the row views exist, so a fling
+ * never makes garbage. Rows are bound on the main thread with allocation counting on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetAdapterAllocationTest {
+    private static final int PETS = 50;
+    private static final int VIEW_HOLDERS = 10;
+    private static final int BINDS = 1000;
+
+    @Test
+    public void bindAllocatesNothing() {
+        final int[] allocations = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                allocations[0] = countBindAllocations();
+            }
+        });
+        assertEquals("objects allocated by " + BINDS + " binds", 0, allocations[0]);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int countBindAllocations() {
+        Context context = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(),
+                R.style.AppTheme);
+        PetAdapter adapter = new PetAdapter(context, new PetAdapter.OnPetClickListener() {
+            @Override
+            public void onPetClick(long id) {
+            }
+        });
+        List<Pet> pets = new ArrayList<Pet>(PETS);
+        for (int i = 0; i < PETS; i++) {
+            // Every other pet has no breed, so both summaries are bound
+            pets.add(new Pet(i + 1, "Pet " + i, i % 2 == 0 ? "Breed " + i : "",
+                    PetEntry.GENDER_FEMALE, i, null));
+        }
+        adapter.showSnapshot(pets);
+
+        FrameLayout parent = new FrameLayout(context);
+        List<PetAdapter.ViewHolder> holders = new ArrayList<PetAdapter.ViewHolder>(VIEW_HOLDERS);
+        for (int i = 0; i < VIEW_HOLDERS; i++) {
+            holders.add(adapter.onCreateViewHolder(parent, 0));
+        }
+        // The first binds set up state each view keeps, ie. the placeholder drawable
+        bind(adapter, holders, PETS * 2);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            bind(adapter, holders, BINDS);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Bind pets to the holders in turn, like a list scrolling through them
+     */
+    private static void bind(PetAdapter adapter, List<PetAdapter.ViewHolder> holders, int count) {
+        int pets = adapter.getItemCount();
+        for (int i = 0; i < count; i++) {
+            adapter.onBindViewHolder(holders.get(i % holders.size()), i % pets);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.Espresso.openActionBarOverflowOrOptionsMenu;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.action.ViewActions.replaceText;
+import static android.support.test.espresso.matcher.RootMatchers.isDialog;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Saves, updates and deletes pets through the UI with a StrictMode policy on the main thread
+ * that kills the app on a disk write or on a {@link StrictMode#noteSlowCall}, which
+ * PetProvider makes for every write. A provider write on the main thread crashes the app,
+ * failing the test, and the test then waits for the write to land from its own thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WritesOffMainThreadTest {
+    private static final long WRITE_TIMEOUT_MS = 10000;
+    private static final int DELETE_ALL_PETS = 2000;
+
+    @Rule
+    public final ActivityTestRule<CatalogActivity> mCatalogRule =
+            new ActivityTestRule<CatalogActivity>(CatalogActivity.class, false, false);
+    @Rule
+    public final ActivityTestRule<EditorActivity> mEditorRule =
+            new ActivityTestRule<EditorActivity>(EditorActivity.class, false, false);
+
+    private ContentResolver mResolver;
+    private StrictMode.ThreadPolicy mOldPolicy;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        if (mOldPolicy != null) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    StrictMode.setThreadPolicy(mOldPolicy);
+                }
+            });
+        }
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void insertFromEditor() {
+        mEditorRule.launchActivity(new Intent());
+        forbidMainThreadWrites();
+
+        onView(withId(R.id.edit_pet_name)).perform(replaceText("Strict"));
+        onView(withId(R.id.edit_pet_weight)).perform(replaceText("7"));
+        onView(withId(R.id.action_save)).perform(click());
+
+        waitForCount(PetEntry.COLUMN_PET_NAME + "='Strict'", 1);
+    }
+
+    @Test
+    public void updateFromEditor() {
+        Uri petUri = insertPet("Before");
+        mEditorRule.launchActivity(new Intent(Intent.ACTION_VIEW, petUri));
+        forbidMainThreadWrites();
+
+        onView(withId(R.id.edit_pet_name)).perform(replaceText("After"));
+        onView(withId(R.id.action_save)).perform(click());
+
+        waitForCount(PetEntry._ID + "=" + ContentUris.parseId(petUri)
+                + " AND " + PetEntry.COLUMN_PET_NAME + "='After'", 1);
+    }
+
+    @Test
+    public void deleteFromEditor() {
+        Uri petUri = insertPet("Deleted");
+        mEditorRule.launchActivity(new Intent(Intent.ACTION_VIEW, petUri));
+        forbidMainThreadWrites();
+
+        openActionBarOverflowOrOptionsMenu(InstrumentationRegistry.getTargetContext());
+        onView(withText(R.string.action_delete)).perform(click());
+        onView(withText(R.string.delete)).inRoot(isDialog()).perform(click());
+
+        waitForCount(PetEntry._ID + "=" + ContentUris.parseId(petUri), 0);
+    }
+
+    @Test
+    public void deleteAllFromCatalog() {
+        assertEquals(DELETE_ALL_PETS, mResolver.bulkInsert(PetEntry.CONTENT_URI,
+                new PetGenerator().next(DELETE_ALL_PETS)));
+        mCatalogRule.launchActivity(null);
+        forbidMainThreadWrites();
+
+        openActionBarOverflowOrOptionsMenu(InstrumentationRegistry.getTargetContext());
+        onView(withText(R.string.action_delete_all_entries)).perform(click());
+
+        waitForCount(null, 0);
+    }
+
+    /**
+     * Kill the app on any disk write or slow call on the main thread from now on
+     */
+    private void forbidMainThreadWrites() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mOldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectCustomSlowCalls()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+            }
+        });
+    }
+
+    private Uri insertPet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, "");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 1);
+        return mResolver.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Wait until the number of pets matching the selection is count, the writes under test
+     * finish on the writer thread after the UI has moved on
+     */
+    private void waitForCount(String selection, int count) {
+        long deadline = SystemClock.uptimeMillis() + WRITE_TIMEOUT_MS;
+        int found;
+        do {
+            Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[]{PetEntry._ID},
+                    selection, null, null);
+            try {
+                found = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            if (found == count) {
+                return;
+            }
+            SystemClock.sleep(50);
+        } while (SystemClock.uptimeMillis() < deadline);
+        throw new AssertionError("Expected " + count + " pets where " + selection + ", found " + found);
+    }
+}
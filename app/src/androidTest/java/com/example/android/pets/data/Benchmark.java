@@ -0,0 +1,76 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Latencies of one benchmarked operation. {@link #report()} logs throughput and latency
+ * percentiles as one line under a fixed name, and sends it as instrumentation status, so runs
+ * against different builds can be compared line by line.
+ */
+final class Benchmark {
+    public static final String LOG_TAG = "PetBenchmark";
+
+    private final String mName;
+    private long[] mNanos = new long[1024];
+    private int mCount;
+    private long mRows;
+    private long mTotalNanos;
+
+    /**
+     * @param name of the operation, ie. "insert_statement"; keep it stable across builds
+     */
+    Benchmark(String name) {
+        mName = name;
+    }
+
+    /**
+     * Record one run of the operation
+     *
+     * @param nanos time it took
+     * @param rows  rows it wrote or read, for the throughput
+     */
+    void record(long nanos, int rows) {
+        if (mCount == mNanos.length) {
+            mNanos = Arrays.copyOf(mNanos, mCount * 2);
+        }
+        mNanos[mCount++] = nanos;
+        mRows += rows;
+        mTotalNanos += nanos;
+    }
+
+    /**
+     * Return the recorded latency at a percentile in ns, by the nearest rank
+     */
+    private long percentileNanos(long[] sorted, int percentile) {
+        int rank = (int) (((long) mCount * percentile + 99) / 100);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Log the results and send them as instrumentation status
+     *
+     * @return the reported line
+     */
+    String report() {
+        if (mCount == 0) {
+            throw new IllegalStateException("Nothing recorded for " + mName);
+        }
+        long[] sorted = Arrays.copyOf(mNanos, mCount);
+        Arrays.sort(sorted);
+        String line = String.format(Locale.US,
+                "%s runs=%d rows=%d rows_per_sec=%.0f p50_us=%d p90_us=%d p99_us=%d max_us=%d",
+                mName, mCount, mRows, mRows * 1e9 / mTotalNanos,
+                percentileNanos(sorted, 50) / 1000, percentileNanos(sorted, 90) / 1000,
+                percentileNanos(sorted, 99) / 1000, sorted[mCount - 1] / 1000);
+        Log.i(LOG_TAG, line);
+        Bundle status = new Bundle();
+        status.putString("benchmark:" + mName, line);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+        return line;
+    }
+}
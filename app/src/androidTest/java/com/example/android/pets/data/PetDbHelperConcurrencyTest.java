@@ -0,0 +1,124 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that with write-ahead logging a read runs while another thread holds a long write
+ * transaction, seeing the table as it was before the transaction, for both profiles
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbHelperConcurrencyTest {
+    private static final String DATABASE_NAME = "test_concurrency.db";
+    private static final int COMMITTED_ROWS = 100;
+    private static final int UNCOMMITTED_ROWS = 1000;
+    /** A read blocked behind the writer would wait until the writer is released */
+    private static final long READ_TIMEOUT_MS = 2000;
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readDuringWriteWithDurableProfile() throws Exception {
+        readDuringWrite(PetDbHelper.Profile.DURABLE);
+    }
+
+    @Test
+    public void readDuringWriteWithThroughputProfile() throws Exception {
+        readDuringWrite(PetDbHelper.Profile.THROUGHPUT);
+    }
+
+    private void readDuringWrite(PetDbHelper.Profile profile) throws Exception {
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME, profile);
+        final SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        assertTrue(database.isWriteAheadLoggingEnabled());
+        insert(database, new PetGenerator(1).next(COMMITTED_ROWS));
+
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<?> writer = mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                database.beginTransactionNonExclusive();
+                try {
+                    for (ContentValues pet : new PetGenerator(2).next(UNCOMMITTED_ROWS)) {
+                        database.insert(PetEntry.TABLE_NAME, null, pet);
+                    }
+                    written.countDown();
+                    // Hold the write lock until the read is done
+                    release.await();
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                return null;
+            }
+        });
+        try {
+            assertTrue(written.await(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            Future<Long> reader = mExecutor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return DatabaseUtils.queryNumEntries(database, PetEntry.TABLE_NAME);
+                }
+            });
+            // Throws TimeoutException if the read waits on the writer
+            assertEquals(COMMITTED_ROWS, (long) reader.get(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            release.countDown();
+        }
+        writer.get();
+        assertEquals(COMMITTED_ROWS + UNCOMMITTED_ROWS,
+                DatabaseUtils.queryNumEntries(database, PetEntry.TABLE_NAME));
+    }
+
+    private static void insert(SQLiteDatabase database, ContentValues[] pets) {
+        database.beginTransactionNonExclusive();
+        try {
+            for (ContentValues pet : pets) {
+                database.insert(PetEntry.TABLE_NAME, null, pet);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Upgrades a database from every past version to the current one and checks it ends up with
+ * the same schema as a new database, with its pets and everything derived from them intact
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbHelperMigrationTest {
+    private static final String DATABASE_NAME = "test_migration.db";
+    private static final String FRESH_DATABASE_NAME = "test_migration_fresh.db";
+    private static final int PETS = 200;
+
+    /**
+     * The pets table exactly as version 1 shipped it, frozen here so changes to
+     * {@link PetDbHelper#onCreate} can't hide a broken upgrade
+     */
+    private static final String SQL_CREATE_VERSION_1 = "CREATE TABLE pets ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "breed TEXT, "
+            + "gender INTEGER NOT NULL, "
+            + "weight INTEGER NOT NULL DEFAULT 0);";
+
+    private Context mContext;
+    private ContentValues[] mPets;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        mPets = new PetGenerator().next(PETS);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Test
+    public void newDatabaseIsAtLatestVersion() {
+        PetDbHelper helper = new PetDbHelper(mContext, FRESH_DATABASE_NAME, PetDbHelper.Profile.DURABLE);
+        try {
+            assertEquals(latestVersion(), helper.getReadableDatabase().getVersion());
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromEveryVersion() {
+        List<String> freshSchema = freshSchema();
+        for (int version = 1; version < latestVersion(); version++) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            createAtVersion(version);
+
+            PetDbHelper helper = new PetDbHelper(mContext, DATABASE_NAME, PetDbHelper.Profile.DURABLE);
+            try {
+                SQLiteDatabase db = helper.getWritableDatabase();
+                String from = "from version " + version;
+                assertEquals(from, latestVersion(), db.getVersion());
+                assertEquals(from, freshSchema, schema(db));
+                assertPetsKept(from, db);
+                assertDerivedTablesMatch(from, db);
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    /**
+     * Write a database the way the app did at the given version: the version 1 table with the
+     * pets in it, then the migrations that existed at that version
+     */
+    private void createAtVersion(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(DATABASE_NAME), null);
+        try {
+            db.execSQL(SQL_CREATE_VERSION_1);
+            for (ContentValues pet : mPets) {
+                db.insertOrThrow(PetEntry.TABLE_NAME, null, pet);
+            }
+            PetDbHelper.migrate(db, 1, version);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private List<String> freshSchema() {
+        PetDbHelper helper = new PetDbHelper(mContext, FRESH_DATABASE_NAME, PetDbHelper.Profile.DURABLE);
+        try {
+            return schema(helper.getReadableDatabase());
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Return every table, index and trigger with the SQL that created it, in a stable order
+     */
+    private static List<String> schema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name, sql FROM sqlite_master"
+                + " ORDER BY type, name", null);
+        try {
+            List<String> schema = new ArrayList<String>();
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + " "
+                        + cursor.getString(2) + " " + cursor.getString(3));
+            }
+            return schema;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertPetsKept(String from, SQLiteDatabase db) {
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, new String[]{PetEntry._ID,
+                        PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                        PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT,
+                        PetEntry.COLUMN_PET_PHOTO},
+                null, null, null, null, PetEntry._ID);
+        try {
+            assertEquals(from, mPets.length, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ContentValues pet = mPets[i];
+                assertEquals(from, i + 1, cursor.getLong(0));
+                assertEquals(from, pet.getAsString(PetEntry.COLUMN_PET_NAME), cursor.getString(1));
+                assertEquals(from, pet.getAsString(PetEntry.COLUMN_PET_BREED), cursor.getString(2));
+                assertEquals(from, (int) pet.getAsInteger(PetEntry.COLUMN_PET_GENDER), cursor.getInt(3));
+                assertEquals(from, (int) pet.getAsInteger(PetEntry.COLUMN_PET_WEIGHT), cursor.getInt(4));
+                assertNull(from, cursor.getString(5));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The search index, stats tables and change log must cover the pets that were in the
+     * table before the migrations that added them ran
+     */
+    private void assertDerivedTablesMatch(String from, SQLiteDatabase db) {
+        String name = mPets[0].getAsString(PetEntry.COLUMN_PET_NAME);
+        assertEquals(from, count(db, "SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME
+                        + " WHERE " + PetEntry.COLUMN_PET_NAME + " = ?", name),
+                count(db, "SELECT COUNT(*) FROM " + PetEntry.SEARCH_TABLE_NAME + " WHERE "
+                        + PetEntry.COLUMN_PET_NAME + " MATCH ?", name));
+        assertEquals(from, count(db, "SELECT COUNT(DISTINCT " + PetEntry.COLUMN_PET_GENDER
+                        + ") FROM " + PetEntry.TABLE_NAME),
+                count(db, "SELECT COUNT(*) FROM " + PetEntry.GENDER_STATS_TABLE_NAME));
+        assertEquals(from, mPets.length, count(db, "SELECT SUM(" + PetEntry.COLUMN_PET_COUNT
+                + ") FROM " + PetEntry.BREED_STATS_TABLE_NAME));
+        assertEquals(from, count(db, "SELECT SUM(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM "
+                        + PetEntry.TABLE_NAME),
+                count(db, "SELECT SUM(total_weight) FROM " + PetEntry.GENDER_STATS_TABLE_NAME));
+        assertEquals(from, mPets.length, count(db, "SELECT COUNT(*) FROM " + ChangeEntry.TABLE_NAME
+                + " WHERE " + ChangeEntry.COLUMN_OPERATION + " = '"
+                + ChangeEntry.OPERATION_INSERT + "'"));
+    }
+
+    private static long count(SQLiteDatabase db, String sql, String... args) {
+        return DatabaseUtils.longForQuery(db, sql, args);
+    }
+
+    private static int latestVersion() {
+        return PetDbHelper.MIGRATIONS[PetDbHelper.MIGRATIONS.length - 1].version;
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load test of {@link PetProvider} through the content resolver, at each table size in turn:
+ * single and bulk inserts, batches, reads by _id, sorted and filtered pages, search, updates
+ * and deletes. Every operation is reported by {@link Benchmark} as "operation_size", ie.
+ * "page_name_10000", and the pets come from {@link PetGenerator} with a fixed seed, so a run
+ * on one build can be compared line by line with a run on another.
+ * <p>
+ * Sizes default to 1000, 10000 and 100000 rows, pass eg. {@code -e sizes 1000,10000} to
+ * am instrument to pick others. This replaces every pet in the app's database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderBenchmark {
+    private static final String ARGUMENT_SIZES = "sizes";
+    private static final String DEFAULT_SIZES = "1000,10000,100000";
+    /** Rows per bulkInsert call while filling the table */
+    private static final int BULK_CHUNK = 1000;
+    private static final int PAGE_SIZE = 50;
+    /** Pages read one after another for each sort and filter */
+    private static final int PAGES = 20;
+    private static final int SINGLE_WRITES = 200;
+    private static final int READS = 1000;
+    private static final int BATCHES = 10;
+    private static final int BATCH_SIZE = 100;
+    private static final String[] PROJECTION = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+    private static final String[] SEARCHES = {"bel", "lab ret", "max", "shep", "tabby lu"};
+
+    private ContentResolver mResolver;
+    /** Picks the rows read and written, seeded so every run touches the same ones */
+    private Random mRandom;
+    private long mFirstId;
+    private int mSize;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void runAllSizes() throws Exception {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String sizes = arguments.getString(ARGUMENT_SIZES, DEFAULT_SIZES);
+        for (String size : sizes.split(",")) {
+            runSize(Integer.parseInt(size.trim()));
+        }
+    }
+
+    private void runSize(int size) throws Exception {
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+        mRandom = new Random(size);
+        mSize = size;
+        PetGenerator generator = new PetGenerator();
+
+        fill(generator);
+        insert(generator);
+        readById();
+        readPages("page_id", PetEntry.buildCatalogUri(null, null, null, null, null), null);
+        readPages("page_name", PetEntry.buildCatalogUri(PetEntry.SORT_NAME, null, null, null, null),
+                PetEntry.SORT_NAME);
+        readPages("page_breed", PetEntry.buildCatalogUri(PetEntry.SORT_BREED, null, null, null, null),
+                PetEntry.SORT_BREED);
+        readPages("page_weight", PetEntry.buildCatalogUri(PetEntry.SORT_WEIGHT, null, null, null, null),
+                PetEntry.SORT_WEIGHT);
+        readPages("page_filter_breed", PetEntry.buildCatalogUri(PetEntry.SORT_NAME, null, null, null,
+                "Beagle"), PetEntry.SORT_NAME);
+        readPages("page_filter_gender_weight", PetEntry.buildCatalogUri(PetEntry.SORT_WEIGHT,
+                PetEntry.GENDER_FEMALE, 5, 30, null), PetEntry.SORT_WEIGHT);
+        search();
+        update(generator);
+        applyBatch(generator);
+        delete();
+    }
+
+    /**
+     * Fill the table with bulkInserts, timing each call
+     */
+    private void fill(PetGenerator generator) {
+        Benchmark benchmark = new Benchmark(name("bulk_insert"));
+        int inserted = 0;
+        while (inserted < mSize) {
+            ContentValues[] pets = generator.next(Math.min(BULK_CHUNK, mSize - inserted));
+            long start = System.nanoTime();
+            int rows = mResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+            benchmark.record(System.nanoTime() - start, rows);
+            assertEquals(pets.length, rows);
+            inserted += rows;
+        }
+        benchmark.report();
+        mFirstId = firstId();
+    }
+
+    private void insert(PetGenerator generator) {
+        Benchmark benchmark = new Benchmark(name("insert"));
+        for (int i = 0; i < SINGLE_WRITES; i++) {
+            ContentValues pet = generator.next();
+            long start = System.nanoTime();
+            mResolver.insert(PetEntry.CONTENT_URI, pet);
+            benchmark.record(System.nanoTime() - start, 1);
+        }
+        benchmark.report();
+    }
+
+    private void readById() {
+        Benchmark benchmark = new Benchmark(name("query_id"));
+        for (int i = 0; i < READS; i++) {
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId());
+            long start = System.nanoTime();
+            Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null);
+            int rows = readAll(cursor);
+            benchmark.record(System.nanoTime() - start, rows);
+        }
+        benchmark.report();
+    }
+
+    /**
+     * Read the first pages of a catalog one after another, each starting after the last pet of
+     * the one before, like scrolling the list
+     *
+     * @param sort the catalog's sort, to take the key of the last pet from
+     */
+    private void readPages(String operation, Uri catalogUri, String sort) {
+        Benchmark benchmark = new Benchmark(name(operation));
+        String afterKey = null;
+        long afterId = -1;
+        for (int page = 0; page < PAGES; page++) {
+            Uri uri = PetEntry.buildPageUri(catalogUri, afterKey, afterId, PAGE_SIZE);
+            long start = System.nanoTime();
+            Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null);
+            int rows;
+            try {
+                rows = cursor.getCount();
+                if (rows > 0) {
+                    cursor.moveToLast();
+                    afterId = cursor.getLong(0);
+                    afterKey = sortKey(cursor, sort);
+                }
+            } finally {
+                cursor.close();
+            }
+            benchmark.record(System.nanoTime() - start, rows);
+            if (rows < PAGE_SIZE) {
+                break;
+            }
+        }
+        benchmark.report();
+    }
+
+    private void search() {
+        Benchmark benchmark = new Benchmark(name("query_search"));
+        for (String query : SEARCHES) {
+            long start = System.nanoTime();
+            Cursor cursor = mResolver.query(PetEntry.buildSearchUri(query), PROJECTION,
+                    null, null, null);
+            int rows = readAll(cursor);
+            benchmark.record(System.nanoTime() - start, rows);
+        }
+        benchmark.report();
+    }
+
+    private void update(PetGenerator generator) {
+        Benchmark benchmark = new Benchmark(name("update"));
+        for (int i = 0; i < SINGLE_WRITES; i++) {
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId());
+            ContentValues pet = generator.next();
+            long start = System.nanoTime();
+            int rows = mResolver.update(uri, pet, null, null);
+            benchmark.record(System.nanoTime() - start, rows);
+        }
+        benchmark.report();
+    }
+
+    /**
+     * Batches of updates to random pets, each batch in one transaction
+     */
+    private void applyBatch(PetGenerator generator) throws Exception {
+        Benchmark benchmark = new Benchmark(name("apply_batch"));
+        for (int batch = 0; batch < BATCHES; batch++) {
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                operations.add(ContentProviderOperation.newUpdate(
+                        ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId()))
+                        .withValues(generator.next())
+                        .build());
+            }
+            long start = System.nanoTime();
+            int rows = mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations).length;
+            benchmark.record(System.nanoTime() - start, rows);
+        }
+        benchmark.report();
+    }
+
+    private void delete() {
+        Benchmark benchmark = new Benchmark(name("delete"));
+        for (int i = 0; i < SINGLE_WRITES; i++) {
+            // Each pet once, from the start of the table
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, mFirstId + i);
+            long start = System.nanoTime();
+            int rows = mResolver.delete(uri, null, null);
+            benchmark.record(System.nanoTime() - start, rows);
+        }
+        benchmark.report();
+    }
+
+    private String name(String operation) {
+        return operation + "_" + mSize;
+    }
+
+    /**
+     * Return the _id of a random pet from the filled table
+     */
+    private long randomId() {
+        return mFirstId + mRandom.nextInt(mSize);
+    }
+
+    private long firstId() {
+        Cursor cursor = mResolver.query(PetEntry.buildPageUri(-1, 1), PROJECTION, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the sort key of the pet at the cursor's position, null if sorted by _id
+     */
+    private static String sortKey(Cursor cursor, String sort) {
+        if (PetEntry.SORT_NAME.equals(sort)) {
+            return cursor.getString(1);
+        } else if (PetEntry.SORT_BREED.equals(sort)) {
+            return cursor.getString(2);
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            return cursor.getString(4);
+        }
+        return null;
+    }
+
+    /**
+     * Step through every row of a cursor and close it, return the row count
+     */
+    private static int readAll(Cursor cursor) {
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
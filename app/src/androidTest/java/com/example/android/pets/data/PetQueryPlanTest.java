@@ -0,0 +1,138 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that every sort and filter of the catalog reads one of the
+ * pets indexes in order, instead of scanning the table and sorting it. The SQL has the shape
+ * {@link PetProvider} builds for a page: filters, the keyset bound after the previous page,
+ * then ORDER BY the sort column and _id.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetQueryPlanTest {
+    private static final String DATABASE_NAME = "test_query_plan.db";
+    private static final String COLUMNS = PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_PHOTO;
+    private static final String NAME_INDEX = PetEntry.TABLE_NAME + "_name_index";
+    private static final String BREED_INDEX = PetEntry.TABLE_NAME + "_breed_index";
+    private static final String WEIGHT_INDEX = PetEntry.TABLE_NAME + "_weight_index";
+    private static final String GENDER_WEIGHT_INDEX = PetEntry.TABLE_NAME + "_gender_weight_index";
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME, PetDbHelper.Profile.THROUGHPUT);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues pet : new PetGenerator().next(1000)) {
+                db.insert(PetEntry.TABLE_NAME, null, pet);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void sortByName() {
+        String order = PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE";
+        assertReadsInOrder(NAME_INDEX, page(null, order));
+        assertReadsInOrder(NAME_INDEX, page(after(order), order), "Bella", "Bella", "10");
+    }
+
+    @Test
+    public void sortByBreed() {
+        assertReadsInOrder(BREED_INDEX, page(null, PetEntry.COLUMN_PET_BREED));
+        assertReadsInOrder(BREED_INDEX, page(after(PetEntry.COLUMN_PET_BREED),
+                PetEntry.COLUMN_PET_BREED), "Beagle", "Beagle", "10");
+    }
+
+    @Test
+    public void sortByWeight() {
+        assertReadsInOrder(WEIGHT_INDEX, page(null, PetEntry.COLUMN_PET_WEIGHT));
+        assertReadsInOrder(WEIGHT_INDEX, page(after(PetEntry.COLUMN_PET_WEIGHT),
+                PetEntry.COLUMN_PET_WEIGHT), "10", "10", "10");
+    }
+
+    @Test
+    public void filterByBreed() {
+        assertReadsInOrder(BREED_INDEX, page(PetEntry.COLUMN_PET_BREED + "=?", null), "Beagle");
+    }
+
+    @Test
+    public void filterByGenderSortByWeight() {
+        assertReadsInOrder(GENDER_WEIGHT_INDEX, page(PetEntry.COLUMN_PET_GENDER + "=?",
+                PetEntry.COLUMN_PET_WEIGHT), String.valueOf(PetEntry.GENDER_FEMALE));
+        assertReadsInOrder(GENDER_WEIGHT_INDEX, page(PetEntry.COLUMN_PET_GENDER + "=? AND "
+                        + PetEntry.COLUMN_PET_WEIGHT + ">=? AND " + PetEntry.COLUMN_PET_WEIGHT + "<=?",
+                PetEntry.COLUMN_PET_WEIGHT), String.valueOf(PetEntry.GENDER_FEMALE), "5", "20");
+    }
+
+    /**
+     * Return the keyset bound after the last pet of a page sorted by a column
+     */
+    private static String after(String sortColumn) {
+        return sortColumn + ">=? AND (" + sortColumn + ">? OR " + PetEntry._ID + ">?)";
+    }
+
+    /**
+     * Return the SQL of one page, sorted by _id when sortColumn is null
+     */
+    private static String page(String selection, String sortColumn) {
+        String orderBy = sortColumn == null ? PetEntry._ID + " ASC"
+                : sortColumn + " ASC, " + PetEntry._ID + " ASC";
+        return "SELECT " + COLUMNS + " FROM " + PetEntry.TABLE_NAME
+                + (selection == null ? "" : " WHERE " + selection)
+                + " ORDER BY " + orderBy + " LIMIT 20";
+    }
+
+    /**
+     * Assert the query reads the given index and needs no sort of its own
+     */
+    private void assertReadsInOrder(String index, String sql, String... args) {
+        String plan = explain(sql, args);
+        assertTrue(sql + " planned as " + plan, plan.contains(index));
+        assertFalse(sql + " planned as " + plan, plan.contains("TEMP B-TREE"));
+    }
+
+    private String explain(String sql, String[] args) {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            StringBuilder plan = new StringBuilder();
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append("; ");
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares writing pets through {@link PetStatements} with the {@link SQLiteDatabase#insert},
+ * update and delete calls they replaced. Each write is timed on its own, once committing every
+ * row and once inside a single transaction, where parsing and binding are most of the cost.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetStatementsBenchmark {
+    private static final String DATABASE_NAME = "benchmark_statements.db";
+    /** Rows written before timing starts, so both routes run with warm caches */
+    private static final int WARMUP_ROWS = 500;
+    private static final int ROWS = 5000;
+
+    /** One way of writing a pet */
+    private interface Write {
+        void run(SQLiteDatabase database, long id, ContentValues values);
+    }
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private ContentValues[] mPets;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME, PetDbHelper.Profile.THROUGHPUT);
+        mPets = new PetGenerator().next(WARMUP_ROWS + ROWS);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void insertWithStatement() {
+        run("insert_statement", false, statementInsert());
+        assertEquals(WARMUP_ROWS + ROWS, countPets());
+    }
+
+    @Test
+    public void insertWithContentValues() {
+        run("insert_content_values", false, contentValuesInsert());
+        assertEquals(WARMUP_ROWS + ROWS, countPets());
+    }
+
+    @Test
+    public void insertWithStatementInTransaction() {
+        run("insert_statement_batched", true, statementInsert());
+        assertEquals(WARMUP_ROWS + ROWS, countPets());
+    }
+
+    @Test
+    public void insertWithContentValuesInTransaction() {
+        run("insert_content_values_batched", true, contentValuesInsert());
+        assertEquals(WARMUP_ROWS + ROWS, countPets());
+    }
+
+    @Test
+    public void updateWithStatement() {
+        insertAll();
+        run("update_statement", true, new Write() {
+            @Override
+            public void run(SQLiteDatabase database, long id, ContentValues values) {
+                assertEquals(1, mDbHelper.getStatements().update(id, values));
+            }
+        });
+    }
+
+    @Test
+    public void updateWithContentValues() {
+        insertAll();
+        run("update_content_values", true, new Write() {
+            @Override
+            public void run(SQLiteDatabase database, long id, ContentValues values) {
+                assertEquals(1, database.update(PetEntry.TABLE_NAME, values,
+                        PetEntry._ID + "=?", new String[]{String.valueOf(id)}));
+            }
+        });
+    }
+
+    @Test
+    public void deleteWithStatement() {
+        insertAll();
+        run("delete_statement", true, new Write() {
+            @Override
+            public void run(SQLiteDatabase database, long id, ContentValues values) {
+                assertEquals(1, mDbHelper.getStatements().delete(id));
+            }
+        });
+        assertEquals(0, countPets());
+    }
+
+    @Test
+    public void deleteWithContentValues() {
+        insertAll();
+        run("delete_content_values", true, new Write() {
+            @Override
+            public void run(SQLiteDatabase database, long id, ContentValues values) {
+                assertEquals(1, database.delete(PetEntry.TABLE_NAME,
+                        PetEntry._ID + "=?", new String[]{String.valueOf(id)}));
+            }
+        });
+        assertEquals(0, countPets());
+    }
+
+    private Write statementInsert() {
+        return new Write() {
+            @Override
+            public void run(SQLiteDatabase database, long id, ContentValues values) {
+                assertTrue(mDbHelper.getStatements().insert(values) > 0);
+            }
+        };
+    }
+
+    private Write contentValuesInsert() {
+        return new Write() {
+            @Override
+            public void run(SQLiteDatabase database, long id, ContentValues values) {
+                assertTrue(database.insert(PetEntry.TABLE_NAME, null, values) > 0);
+            }
+        };
+    }
+
+    /**
+     * Write every generated pet, passing row IDs 1 to n in order, and report the timed rows
+     *
+     * @param inTransaction whether all rows commit together or each commits on its own
+     */
+    private void run(String name, boolean inTransaction, Write write) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Benchmark benchmark = new Benchmark(name);
+        if (inTransaction) {
+            database.beginTransactionNonExclusive();
+        }
+        try {
+            for (int i = 0; i < mPets.length; i++) {
+                long start = System.nanoTime();
+                write.run(database, i + 1, mPets[i]);
+                if (i >= WARMUP_ROWS) {
+                    benchmark.record(System.nanoTime() - start, 1);
+                }
+            }
+            if (inTransaction) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            if (inTransaction) {
+                database.endTransaction();
+            }
+        }
+        benchmark.report();
+    }
+
+    /**
+     * Insert every generated pet in one transaction, untimed, as rows 1 to n
+     */
+    private void insertAll() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransactionNonExclusive();
+        try {
+            for (ContentValues pet : mPets) {
+                database.insert(PetEntry.TABLE_NAME, null, pet);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private long countPets() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), PetEntry.TABLE_NAME);
+    }
+}
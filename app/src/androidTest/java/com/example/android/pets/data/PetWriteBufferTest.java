@@ -0,0 +1,124 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that write-behind updates the table would reject are refused when held, and that
+ * one which gets held anyway is dropped at flush instead of blocking every other pet's.
+ * This replaces every pet in the app's database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetWriteBufferTest {
+    /** Long enough that nothing flushes until the test asks */
+    private static final String DELAY_MS = "60000";
+
+    private ContentResolver mResolver;
+    private ContentProviderClient mClient;
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+        mClient = mResolver.acquireContentProviderClient(PetContract.CONTENT_AUTHORITY);
+        mProvider = (PetProvider) mClient.getLocalContentProvider();
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SET_WRITE_BEHIND_DELAY, DELAY_MS,
+                null);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SET_WRITE_BEHIND_DELAY,
+                String.valueOf(PetWriteBuffer.DEFAULT_DELAY_MS), null);
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+        mClient.release();
+    }
+
+    @Test
+    public void nullGenderIsRefused() {
+        long id = insertPet();
+        ContentValues values = new ContentValues();
+        values.putNull(PetEntry.COLUMN_PET_GENDER);
+        try {
+            mResolver.update(PetEntry.buildWriteBehindUri(id), values, null, null);
+            fail("Held an update with a null gender");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertNull(mProvider.mWriteBuffer.get(id));
+    }
+
+    @Test
+    public void unknownColumnIsRefused() {
+        long id = insertPet();
+        ContentValues values = new ContentValues();
+        values.put("color", "brown");
+        try {
+            mResolver.update(PetEntry.buildWriteBehindUri(id), values, null, null);
+            fail("Held an update to an unknown column");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertNull(mProvider.mWriteBuffer.get(id));
+    }
+
+    @Test
+    public void badHeldUpdateDoesNotBlockOthers() {
+        long badId = insertPet();
+        long goodId = insertPet();
+        // Held straight into the buffer, as the provider no longer accepts it
+        ContentValues nullGender = new ContentValues();
+        nullGender.putNull(PetEntry.COLUMN_PET_GENDER);
+        mProvider.mWriteBuffer.put(badId, nullGender);
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, 42);
+        assertEquals(1, mResolver.update(PetEntry.buildWriteBehindUri(goodId), weight, null, null));
+
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_FLUSH_WRITES, null, null);
+
+        assertNull(mProvider.mWriteBuffer.get(badId));
+        assertNull(mProvider.mWriteBuffer.get(goodId));
+        assertEquals(42, storedInt(goodId, PetEntry.COLUMN_PET_WEIGHT));
+        assertEquals(PetEntry.GENDER_MALE, storedInt(badId, PetEntry.COLUMN_PET_GENDER));
+    }
+
+    private long insertPet() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Toto");
+        values.put(PetEntry.COLUMN_PET_BREED, "Terrier");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+        return ContentUris.parseId(mResolver.insert(PetEntry.CONTENT_URI, values));
+    }
+
+    /**
+     * Read a column from the table itself, the pets URI doesn't overlay held updates
+     */
+    private int storedInt(long id, String column) {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[]{column},
+                PetEntry._ID + "=?", new String[]{String.valueOf(id)}, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -15,44 +15,167 @@
  */
 package com.example.android.pets;
 
-import android.annotation.TargetApi;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.app.LoaderManager;
+import android.support.v4.os.TraceCompat;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
-import android.widget.TextView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetGenerator;
+
+import java.util.List;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<PetListLoader.Result> {
+    public static final String LOG_TAG = CatalogActivity.class.getSimpleName();
 
     private static final int PET_LOADER = 0;
+    /**
+     * Delay after the last keystroke before searching, so typing doesn't queue up queries
+     */
+    private static final long SEARCH_DELAY_MS = 300;
+    /**
+     * Number of pets added by each tap on "Insert dummy data"
+     */
+    private static final int DUMMY_PET_COUNT = 100;
+    /**
+     * Keys for the sort and filters in the saved instance state
+     */
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_GENDER = "gender";
+    private static final String STATE_MIN_WEIGHT = "min_weight";
+    private static final String STATE_MAX_WEIGHT = "max_weight";
+    private static final String STATE_BREED = "breed";
+
+    PetAdapter mAdapter;
+    /**
+     * Shown instead of the list when there are no pets
+     */
+    private View mEmptyView;
+    /**
+     * Current search text, empty when the list shows all pets
+     */
+    private String mSearchQuery = "";
+    /**
+     * Sort order of the catalog, one of the PetEntry SORT_ values or null for date added
+     */
+    private String mSort;
+    /**
+     * Filters of the catalog, null when not filtering on that column
+     */
+    private Integer mGenderFilter;
+    private Integer mMinWeightFilter;
+    private Integer mMaxWeightFilter;
+    private String mBreedFilter;
+    /**
+     * Delete of every pet still running, null when none is. The delete itself is kept by
+     * {@link PetWriter}, so a recreated activity attaches to it again.
+     */
+    private PetWriter.Cancellable mDeleteAll;
+    /**
+     * Shows the progress of the running delete, with an action to cancel it
+     */
+    private Snackbar mDeleteSnackbar;
+    /**
+     * Snapshot and first page read while this activity was created, null if the loader
+     * already existed, ie. after a configuration change
+     */
+    private CatalogPrefetch mPrefetch;
+    /**
+     * When onCreate started, time to first pet is measured from here
+     */
+    private long mCreateTime;
+    /**
+     * Last load shown, null until the first one arrives
+     */
+    private PetListLoader.Result mShownResult;
+    /**
+     * Handler used to delay searches while the user is typing
+     */
+    private final Handler mHandler = new Handler();
+    /**
+     * Source of dummy pets, seeded so every run of the app inserts the same pets
+     */
+    private final PetGenerator mPetGenerator = new PetGenerator();
+    /**
+     * Shows the progress of the running delete and hides it when done
+     */
+    private final PetWriter.ProgressCallback mDeleteAllCallback = new PetWriter.ProgressCallback() {
+        @Override
+        public void onProgress(int done, int total) {
+            if (mDeleteSnackbar != null) {
+                mDeleteSnackbar.setText(getString(R.string.delete_all_progress, done, total));
+            }
+        }
 
-    PetCursorAdapter mCursorAdapter;
+        @Override
+        public void onComplete(Integer rowsDeleted) {
+            Log.v("CatalogActivity", rowsDeleted + " rows deleted from pets database");
+            mDeleteAll = null;
+            if (mDeleteSnackbar != null) {
+                mDeleteSnackbar.dismiss();
+                mDeleteSnackbar = null;
+            }
+        }
+    };
+    /**
+     * Starts a search for the current text, cancelling any search still running
+     */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            getPetListLoader().setSearchQuery(mSearchQuery);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        TraceCompat.beginSection("CatalogActivity.onCreate");
+        mCreateTime = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT);
+            mGenderFilter = getInteger(savedInstanceState, STATE_GENDER);
+            mMinWeightFilter = getInteger(savedInstanceState, STATE_MIN_WEIGHT);
+            mMaxWeightFilter = getInteger(savedInstanceState, STATE_MAX_WEIGHT);
+            mBreedFilter = savedInstanceState.getString(STATE_BREED);
+        }
+        // Read the snapshot and open the database while the views inflate, unless the loader
+        // kept its pets through a configuration change
+        if (getLoaderManager().getLoader(PET_LOADER) == null) {
+            mPrefetch = CatalogPrefetch.start(this, catalogUri());
+        }
+        TraceCompat.beginSection("CatalogActivity.inflate");
         setContentView(R.layout.activity_catalog);
+        TraceCompat.endSection();
 
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
@@ -64,17 +187,14 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        ListView petListView = (ListView) findViewById(R.id.list);
-        //attach empty view
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
-        //no pet data yet so cursor is set to null
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
-        //Set up item clickListener on pet list items
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        RecyclerView petRecyclerView = (RecyclerView) findViewById(R.id.list);
+        mEmptyView = findViewById(R.id.empty_view);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petRecyclerView.setLayoutManager(layoutManager);
+        //Open the editor for the pet clicked
+        mAdapter = new PetAdapter(this, new PetAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onPetClick(long id) {
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
                 //Content Uri for pet item clicked, append id to Content URI
                 Uri currentPetUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
@@ -84,27 +204,186 @@ public class CatalogActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        petRecyclerView.setAdapter(mAdapter);
+        //Load the next page when the user scrolls near the end of the list
+        petRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= mAdapter.getItemCount() - PetListLoader.PAGE_SIZE / 2) {
+                    getPetListLoader().loadMore();
+                }
+            }
+        });
+
+        if (mPrefetch != null) {
+            showSnapshot();
+        }
+
+        // Carry on showing a delete started before a configuration change
+        mDeleteAll = PetWriter.getInstance(this).attachDeleteAll(mDeleteAllCallback);
+        if (mDeleteAll != null) {
+            showDeleteSnackbar();
+        }
 
-        //initialize loader
+        //initialize loader, dropping any search left over from before a configuration change
         getLoaderManager().initLoader(PET_LOADER, null, this);
+        getPetListLoader().setSearchQuery(mSearchQuery);
+        updateCatalog();
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Show the pets saved when the catalog was last left, until the first load replaces them
+     */
+    private void showSnapshot() {
+        List<Pet> snapshot = mPrefetch.getSnapshot();
+        if (snapshot.isEmpty()) {
+            return;
+        }
+        mAdapter.showSnapshot(snapshot);
+        mEmptyView.setVisibility(View.GONE);
+        Log.i(LOG_TAG, "Snapshot of " + snapshot.size() + " pets shown "
+                + (SystemClock.elapsedRealtime() - mCreateTime) + " ms after create");
+    }
+
+    /**
+     * Report the catalog fully drawn once the first load is on screen, and start the work
+     * left until then
+     */
+    private void onFirstLoadShown() {
+        Log.i(LOG_TAG, "First pets shown "
+                + (SystemClock.elapsedRealtime() - mCreateTime) + " ms after create");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reportFullyDrawn();
+        }
+        // Keep the change feed compact and the planner statistics fresh
+        PetMaintenance.schedule(this);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        putInteger(outState, STATE_GENDER, mGenderFilter);
+        putInteger(outState, STATE_MIN_WEIGHT, mMinWeightFilter);
+        putInteger(outState, STATE_MAX_WEIGHT, mMaxWeightFilter);
+        outState.putString(STATE_BREED, mBreedFilter);
+    }
+
+    private static void putInteger(Bundle bundle, String key, Integer value) {
+        if (value != null) {
+            bundle.putInt(key, value);
+        }
+    }
+
+    private static Integer getInteger(Bundle bundle, String key) {
+        return bundle.containsKey(key) ? bundle.getInt(key) : null;
+    }
+
+    /**
+     * Show the catalog with the current sort and filters. The provider sorts and filters
+     * on its indexes, and the loader only fetches the first page again.
+     */
+    private void updateCatalog() {
+        getPetListLoader().setCatalogUri(catalogUri());
+    }
+
+    /**
+     * Return the catalog URI for the current sort and filters
+     */
+    private Uri catalogUri() {
+        return PetEntry.buildCatalogUri(mSort, mGenderFilter, mMinWeightFilter, mMaxWeightFilter,
+                mBreedFilter);
+    }
+
+    /**
+     * Show a dialog to choose which pets the catalog shows
+     */
+    private void showFilterDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final Spinner genderSpinner = (Spinner) view.findViewById(R.id.filter_gender);
+        final EditText minWeightEditText = (EditText) view.findViewById(R.id.filter_min_weight);
+        final EditText maxWeightEditText = (EditText) view.findViewById(R.id.filter_max_weight);
+        final EditText breedEditText = (EditText) view.findViewById(R.id.filter_breed);
+
+        ArrayAdapter<CharSequence> genderAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_gender_filter_options, android.R.layout.simple_spinner_item);
+        genderAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        genderSpinner.setAdapter(genderAdapter);
+        //position 0 is any gender, the rest follow the GENDER_ constants
+        genderSpinner.setSelection(mGenderFilter == null ? 0 : mGenderFilter + 1);
+        if (mMinWeightFilter != null) {
+            minWeightEditText.setText(String.valueOf(mMinWeightFilter));
+        }
+        if (mMaxWeightFilter != null) {
+            maxWeightEditText.setText(String.valueOf(mMaxWeightFilter));
+        }
+        breedEditText.setText(mBreedFilter);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_dialog_title);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.filter_apply, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                int position = genderSpinner.getSelectedItemPosition();
+                mGenderFilter = position == 0 ? null : position - 1;
+                mMinWeightFilter = parseWeight(minWeightEditText);
+                mMaxWeightFilter = parseWeight(maxWeightEditText);
+                String breed = breedEditText.getText().toString().trim();
+                mBreedFilter = breed.isEmpty() ? null : breed;
+                updateCatalog();
+            }
+        });
+        builder.setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                mGenderFilter = null;
+                mMinWeightFilter = null;
+                mMaxWeightFilter = null;
+                mBreedFilter = null;
+                updateCatalog();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
     }
+
     /**
-     * Helper method to insert hardcoded pet data into the database. For debugging purposes only.
+     * Return the weight typed in the field, or null if it's empty or not a number
      */
-    private void insertPet() {
-        // Create a ContentValues object where column names are the keys,
-        // and Toto's pet attributes are the values.
-        ContentValues values = new ContentValues();
-        values.put(PetEntry.COLUMN_PET_NAME, "Toto");
-        values.put(PetEntry.COLUMN_PET_BREED, "Terrier");
-        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
-        values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+    private static Integer parseWeight(EditText editText) {
+        String weight = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(weight)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(weight);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
-        // Insert a new row for Toto into the provider using the ContentResolver.
-        // Use the {@link PetEntry#CONTENT_URI} to indicate that we want to insert
-        // into the pets database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        getContentResolver().insert(PetEntry.CONTENT_URI, values);
+    private PetListLoader getPetListLoader() {
+        Loader<PetListLoader.Result> loader = getLoaderManager().getLoader(PET_LOADER);
+        return (PetListLoader) loader;
+    }
+
+    /**
+     * Helper method to insert generated pet data into the database. For debugging purposes only.
+     */
+    private void insertPets() {
+        // The generator gives every column, realistic names and breeds, and a fixed seed
+        ContentValues[] pets = mPetGenerator.next(DUMMY_PET_COUNT);
+        // Insert the pets in one transaction, off the main thread
+        PetWriter.getInstance(this).bulkInsert(PetEntry.CONTENT_URI, pets,
+                new PetWriter.Callback<Integer>() {
+                    @Override
+                    public void onComplete(Integer rowsInserted) {
+                        Log.v("CatalogActivity", rowsInserted + " rows inserted into pets database");
+                    }
+                });
     }
 
     @Override
@@ -112,17 +391,103 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        // Search as the user types
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DELAY_MS);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Check the current sort order
+        int sortItemId;
+        if (PetEntry.SORT_NAME.equals(mSort)) {
+            sortItemId = R.id.sort_name;
+        } else if (PetEntry.SORT_BREED.equals(mSort)) {
+            sortItemId = R.id.sort_breed;
+        } else if (PetEntry.SORT_WEIGHT.equals(mSort)) {
+            sortItemId = R.id.sort_weight;
+        } else {
+            sortItemId = R.id.sort_date_added;
+        }
+        menu.findItem(sortItemId).setChecked(true);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /**
+     * Search pets after the given delay, or go back to the full list when the text is empty
+     */
+    private void search(String query, long delayMs) {
+        query = query.trim();
+        if (query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (query.isEmpty()) {
+            // Back to the full list straight away
+            mSearchRunnable.run();
+            return;
+        }
+        mHandler.postDelayed(mSearchRunnable, delayMs);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // The top of the catalog is shown on the next cold start while the database opens
+        if (mShownResult != null && mShownResult.searchQuery.isEmpty()) {
+            CatalogPrefetch.saveSnapshot(this, mShownResult.catalogUri, mShownResult.pets);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        // The delete keeps running, the next activity attaches to it
+        PetWriter.getInstance(this).detachDeleteAll(mDeleteAllCallback);
+        super.onDestroy();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a choice in the "Sort by" submenu
+            case R.id.sort_date_added:
+                sortBy(null);
+                return true;
+            case R.id.sort_name:
+                sortBy(PetEntry.SORT_NAME);
+                return true;
+            case R.id.sort_breed:
+                sortBy(PetEntry.SORT_BREED);
+                return true;
+            case R.id.sort_weight:
+                sortBy(PetEntry.SORT_WEIGHT);
+                return true;
+            // Respond to a click on the "Filter" menu option
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 // Dummy data
-                insertPet();
+                insertPets();
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
@@ -133,35 +498,53 @@ public class CatalogActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
+    private void sortBy(String sort) {
+        mSort = sort;
+        invalidateOptionsMenu();
+        updateCatalog();
+    }
+
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pets database");
+        if (mDeleteAll != null) {
+            return;
+        }
+        showDeleteSnackbar();
+        // Deleted a chunk at a time so the list and the editor never wait on it
+        mDeleteAll = PetWriter.getInstance(this).deleteAll(mDeleteAllCallback);
+    }
+
+    private void showDeleteSnackbar() {
+        mDeleteSnackbar = Snackbar.make(findViewById(R.id.list), R.string.delete_all_starting,
+                Snackbar.LENGTH_INDEFINITE);
+        mDeleteSnackbar.setAction(R.string.cancel, new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (mDeleteAll != null) {
+                    mDeleteAll.cancel();
+                }
+            }
+        });
+        mDeleteSnackbar.show();
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                PetEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    public Loader<PetListLoader.Result> onCreateLoader(int id, Bundle args) {
+        // This loader will query the ContentProvider and diff the results on a background thread
+        return new PetListLoader(this, mPrefetch);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<PetListLoader.Result> loader, PetListLoader.Result data) {
+        mAdapter.setResult(data);
+        mEmptyView.setVisibility(data.pets.isEmpty() ? View.VISIBLE : View.GONE);
+        boolean first = mShownResult == null;
+        mShownResult = data;
+        if (first && mPrefetch != null) {
+            onFirstLoadShown();
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mCursorAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<PetListLoader.Result> loader) {
     }
 }
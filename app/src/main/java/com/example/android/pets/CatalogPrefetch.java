@@ -0,0 +1,273 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Gets the catalog on screen early on a cold start. Started at the top of
+ * {@link CatalogActivity#onCreate}, it reads the snapshot of the list saved when the catalog
+ * was last left, then queries the first page, which opens (and on first run creates) the
+ * database, all while the activity inflates its views. The snapshot is shown as soon as the
+ * views exist, and the first load takes the prefetched page and diffs it against the snapshot.
+ */
+final class CatalogPrefetch {
+    public static final String LOG_TAG = CatalogPrefetch.class.getSimpleName();
+
+    private static final String SNAPSHOT_FILE = "catalog_snapshot";
+    /**
+     * Format of the snapshot file, a file with another version is ignored
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+    /**
+     * Pets kept in the snapshot, about a screenful
+     */
+    private static final int SNAPSHOT_SIZE = 20;
+
+    private final Context mContext;
+    private final Uri mCatalogUri;
+    private final FutureTask<List<Pet>> mSnapshot;
+    private final FutureTask<List<Pet>> mFirstPage;
+    /**
+     * Set when a pet changes after the first page query started, the page may then be stale
+     */
+    private volatile boolean mStale;
+    /**
+     * Registered before the first page query, until the page is taken or released
+     */
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mStale = true;
+        }
+    };
+    private boolean mObserverRegistered;
+    private boolean mTaken;
+
+    private CatalogPrefetch(Context context, Uri catalogUri) {
+        mContext = context.getApplicationContext();
+        mCatalogUri = catalogUri;
+        mSnapshot = new FutureTask<List<Pet>>(new Callable<List<Pet>>() {
+            @Override
+            public List<Pet> call() throws IOException {
+                return readSnapshot();
+            }
+        });
+        mFirstPage = new FutureTask<List<Pet>>(new Callable<List<Pet>>() {
+            @Override
+            public List<Pet> call() {
+                return queryFirstPage();
+            }
+        });
+    }
+
+    /**
+     * Start reading the snapshot and the first page of the catalog sorted and filtered as given
+     * by a {@link PetEntry#buildCatalogUri} URI
+     */
+    static CatalogPrefetch start(Context context, Uri catalogUri) {
+        final CatalogPrefetch prefetch = new CatalogPrefetch(context, catalogUri);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection("CatalogPrefetch.readSnapshot");
+                try {
+                    prefetch.mSnapshot.run();
+                } finally {
+                    TraceCompat.endSection();
+                }
+                prefetch.registerObserver();
+                TraceCompat.beginSection("CatalogPrefetch.queryFirstPage");
+                try {
+                    prefetch.mFirstPage.run();
+                } finally {
+                    TraceCompat.endSection();
+                }
+            }
+        }, "CatalogPrefetch").start();
+        return prefetch;
+    }
+
+    /**
+     * Return the pets of the snapshot, empty if there is none for this catalog URI. Waits for
+     * the snapshot to be read, a small file that is usually read before inflation finishes.
+     * Every call returns the same list.
+     */
+    List<Pet> getSnapshot() {
+        try {
+            return mSnapshot.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Failed to read catalog snapshot", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Return the prefetched first page if it was for this catalog URI and no pet changed since
+     * it was queried, otherwise null. Waits for the query if it's still running. Only the first
+     * call can return the page.
+     */
+    List<Pet> takeFirstPage(Uri catalogUri) {
+        synchronized (this) {
+            if (mTaken || !mCatalogUri.equals(catalogUri)) {
+                release();
+                return null;
+            }
+            mTaken = true;
+        }
+        try {
+            List<Pet> pets = mFirstPage.get();
+            return mStale ? null : pets;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Failed to prefetch the first page", e);
+            return null;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Stop watching for changes, for when the first page won't be taken
+     */
+    synchronized void release() {
+        mTaken = true;
+        if (mObserverRegistered) {
+            mContext.getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+    }
+
+    private synchronized void registerObserver() {
+        if (!mTaken) {
+            mContext.getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, false,
+                    mObserver);
+            mObserverRegistered = true;
+        }
+    }
+
+    private List<Pet> queryFirstPage() {
+        Cursor cursor = mContext.getContentResolver().query(
+                PetEntry.buildPageUri(mCatalogUri, null, -1, PetListLoader.PAGE_SIZE),
+                PetListLoader.PROJECTION, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return Pet.readAll(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private List<Pet> readSnapshot() throws IOException {
+        File file = new File(mContext.getFilesDir(), SNAPSHOT_FILE);
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            // First run, or the catalog was never left
+            return Collections.emptyList();
+        }
+        try {
+            if (in.readInt() != SNAPSHOT_VERSION || !in.readUTF().equals(mCatalogUri.toString())) {
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            List<Pet> pets = new ArrayList<Pet>(count);
+            for (int i = 0; i < count; i++) {
+                pets.add(new Pet(in.readLong(), in.readUTF(), readNullable(in), in.readInt(),
+                        in.readInt(), readNullable(in)));
+            }
+            return pets;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the top of the catalog shown for a catalog URI, for the next cold start to show.
+     * The pets are copied now and written on a background thread.
+     */
+    static void saveSnapshot(Context context, final Uri catalogUri, List<Pet> pets) {
+        final File file = new File(context.getFilesDir(), SNAPSHOT_FILE);
+        final List<Pet> snapshot = new ArrayList<Pet>(
+                pets.subList(0, Math.min(pets.size(), SNAPSHOT_SIZE)));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(file, catalogUri, snapshot);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to save catalog snapshot", e);
+                }
+            }
+        }, "CatalogSnapshot").start();
+    }
+
+    /**
+     * Write the snapshot under a temporary name and rename it, so a reader never sees half of it
+     */
+    private static synchronized void writeSnapshot(File file, Uri catalogUri, List<Pet> pets)
+            throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        try {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(catalogUri.toString());
+            out.writeInt(pets.size());
+            for (Pet pet : pets) {
+                out.writeLong(pet.id);
+                out.writeUTF(pet.name);
+                writeNullable(out, pet.breed);
+                out.writeInt(pet.gender);
+                out.writeInt(pet.weight);
+                writeNullable(out, pet.photo);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
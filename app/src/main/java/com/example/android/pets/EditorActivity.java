@@ -16,7 +16,9 @@
 package com.example.android.pets;
 
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -35,6 +37,7 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
@@ -48,6 +51,9 @@ public class EditorActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
     private static final int EXISTING_PET_LOADER = 0;
+    private static final int PICK_PHOTO_REQUEST = 1;
+    private static final String STATE_ORIGINAL_VALUES = "original_values";
+    private static final String STATE_PET_HAS_CHANGED = "pet_has_changed";
     /**
      * Content URI for existing pets, null for new pets
      */
@@ -68,6 +74,10 @@ public class EditorActivity extends AppCompatActivity implements
      * EditText field to enter the pet's gender
      */
     private Spinner mGenderSpinner;
+    /**
+     * Photo of an existing pet, tap to pick a new one
+     */
+    private ImageView mPhotoImageView;
     /**
      * Gender of the pet. The possible values are:
      * 0 for unknown gender, 1 for male, 2 for female.
@@ -81,6 +91,11 @@ public class EditorActivity extends AppCompatActivity implements
      * Boolean flag, keeps track of if the pet was edited or not
      */
     private boolean mPetHasChanged = false;
+    /**
+     * Column values of the existing pet as loaded, so a save only writes the columns that changed.
+     * Null until the first load, which is the only one that fills in the fields.
+     */
+    private ContentValues mOriginalValues;
     /**
      * OnTouchListener, listens for any user touches on a View
      */
@@ -96,6 +111,11 @@ public class EditorActivity extends AppCompatActivity implements
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_editor);
+        if (savedInstanceState != null) {
+            // The fields restore their own text, which may hold edits not saved yet
+            mOriginalValues = savedInstanceState.getParcelable(STATE_ORIGINAL_VALUES);
+            mPetHasChanged = savedInstanceState.getBoolean(STATE_PET_HAS_CHANGED);
+        }
 
         //examine the intent that launched thia activity: creating new pet or editing
         Intent intent = getIntent();
@@ -123,6 +143,60 @@ public class EditorActivity extends AppCompatActivity implements
         mGenderSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+        setupPhoto();
+    }
+
+    /**
+     * Show the photo of an existing pet and pick a new one on tap. A new pet has no row for
+     * the photo to belong to until it is saved, so its photo is hidden.
+     */
+    private void setupPhoto() {
+        mPhotoImageView = (ImageView) findViewById(R.id.pet_photo);
+        if (mCurrentPetUri == null) {
+            return;
+        }
+        findViewById(R.id.container_photo).setVisibility(View.VISIBLE);
+        mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                if (intent.resolveActivity(getPackageManager()) != null) {
+                    startActivityForResult(intent, PICK_PHOTO_REQUEST);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_ORIGINAL_VALUES, mOriginalValues);
+        outState.putBoolean(STATE_PET_HAS_CHANGED, mPetHasChanged);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != PICK_PHOTO_REQUEST) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        // Written right away rather than on save, the loader shows it once it's stored
+        final Context appContext = getApplicationContext();
+        PetWriter.getInstance(this).setPhoto(ContentUris.parseId(mCurrentPetUri), data.getData(),
+                new PetWriter.Callback<Boolean>() {
+                    @Override
+                    public void onComplete(Boolean written) {
+                        if (!written) {
+                            Toast.makeText(appContext, R.string.editor_photo_failed,
+                                    Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
     }
 
     /**
@@ -188,35 +262,66 @@ public class EditorActivity extends AppCompatActivity implements
         }
         values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
+        // The write finishes after this activity has closed, so results are shown
+        // with the application context
+        final Context appContext = getApplicationContext();
         // Determine if a new pet
         if (mCurrentPetUri == null) {
-            //Insert a new pet into the provider, returning content URI for the new pet
-            Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-            //show a toast about insertion status
-            if (newUri == null) {
-                Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                        Toast.LENGTH_LONG).show();
-            } else {
-                //String rowId = newUri.getLastPathSegment();
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                        Toast.LENGTH_LONG).show();
-            }
+            //Insert a new pet into the provider off the main thread
+            PetWriter.getInstance(this).insert(PetEntry.CONTENT_URI, values,
+                    new PetWriter.Callback<Uri>() {
+                        @Override
+                        public void onComplete(Uri newUri) {
+                            //show a toast about insertion status
+                            if (newUri == null) {
+                                Toast.makeText(appContext, R.string.editor_insert_pet_failed,
+                                        Toast.LENGTH_LONG).show();
+                            } else {
+                                Toast.makeText(appContext, R.string.editor_insert_pet_successful,
+                                        Toast.LENGTH_LONG).show();
+                            }
+                        }
+                    });
         } else {
+            // Only write the columns the user actually changed, and nothing if none did
+            values = changedValues(values);
+            if (values.size() == 0) {
+                return;
+            }
             // Existing pet case: so update the pet using content URI mCurrentPetUri,
-            // pass in new ContentValues. pass in null for selection, args, since
-            // mCurrentUri will already identify the correct row to modify
-            int rowsAffected = getContentResolver().update(mCurrentPetUri, values, null, null);
-            //show status of update
-            if (rowsAffected == 0) {
-                //error w update
-                Toast.makeText(this, getString(R.string.editor_update_pet_failed),
-                        Toast.LENGTH_LONG).show();
-            } else {
-                // ok updated
-                Toast.makeText(this, getString(R.string.editor_update_pet_successful),
-                        Toast.LENGTH_LONG).show();
+            // pass in new ContentValues. mCurrentUri will already identify the correct
+            // row to modify
+            PetWriter.getInstance(this).update(mCurrentPetUri, values,
+                    new PetWriter.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsAffected) {
+                            //show status of update
+                            if (rowsAffected == 0) {
+                                Toast.makeText(appContext, R.string.editor_update_pet_failed,
+                                        Toast.LENGTH_LONG).show();
+                            } else {
+                                Toast.makeText(appContext, R.string.editor_update_pet_successful,
+                                        Toast.LENGTH_LONG).show();
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Return the values that differ from the pet as loaded, or all of them if it hasn't loaded yet
+     */
+    private ContentValues changedValues(ContentValues values) {
+        if (mOriginalValues == null) {
+            return values;
+        }
+        ContentValues changed = new ContentValues(values);
+        for (String key : values.keySet()) {
+            if (TextUtils.equals(values.getAsString(key), mOriginalValues.getAsString(key))) {
+                changed.remove(key);
             }
         }
+        return changed;
     }
 
     @Override
@@ -306,19 +411,23 @@ public class EditorActivity extends AppCompatActivity implements
     private void deletePet() {
         //check if existing pet
         if(mCurrentPetUri != null) {
-            //call ContentResolver to delete the pet at given content URI
-            //selection args not needed
-            int rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-            //show toast on deletion status
-            if(rowsDeleted ==0) {
-                //no rows deleted, error
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_LONG).show();
-            } else {
-                // successfully deleted row
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_LONG).show();
-            }
+            //delete the pet at given content URI off the main thread
+            final Context appContext = getApplicationContext();
+            PetWriter.getInstance(this).delete(mCurrentPetUri, new PetWriter.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer rowsDeleted) {
+                    //show toast on deletion status
+                    if (rowsDeleted == 0) {
+                        //no rows deleted, error
+                        Toast.makeText(appContext, R.string.editor_delete_pet_failed,
+                                Toast.LENGTH_LONG).show();
+                    } else {
+                        // successfully deleted row
+                        Toast.makeText(appContext, R.string.editor_delete_pet_successful,
+                                Toast.LENGTH_LONG).show();
+                    }
+                }
+            });
         }
         //close the activity
         finish();
@@ -346,7 +455,7 @@ public class EditorActivity extends AppCompatActivity implements
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         //projection, columns to get from pets table
         String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
-                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO};
         //loader to execute ContentProvider's query method on a background thread
         return new CursorLoader(this, mCurrentPetUri, projection, null, null, null);
     }
@@ -361,11 +470,27 @@ public class EditorActivity extends AppCompatActivity implements
             int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
             int genderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
             int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+            int photoColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+            PetThumbnailLoader.getInstance(this).load(mPhotoImageView,
+                    ContentUris.parseId(mCurrentPetUri), cursor.getString(photoColumnIndex),
+                    getResources().getDimensionPixelSize(R.dimen.editor_photo_size),
+                    R.drawable.photo_placeholder);
+            // Later loads, ie. after a new photo is stored, only update the photo so
+            // edits not saved yet stay in the fields
+            if (mOriginalValues != null) {
+                return;
+            }
             //Extract values
             String name = cursor.getString(nameColumnIndex);
             String breed = cursor.getString(breedColumnIndex);
             int gender = cursor.getInt(genderColumnIndex);
             int weight = cursor.getInt(weightColumnIndex);
+            // Remember the values as the editor shows them, an empty breed field saves as ""
+            mOriginalValues = new ContentValues();
+            mOriginalValues.put(PetEntry.COLUMN_PET_NAME, name);
+            mOriginalValues.put(PetEntry.COLUMN_PET_BREED, breed == null ? "" : breed);
+            mOriginalValues.put(PetEntry.COLUMN_PET_GENDER, gender);
+            mOriginalValues.put(PetEntry.COLUMN_PET_WEIGHT, weight);
             // Update views w. values
             mNameEditText.setText(name);
             mBreedEditText.setText(breed);
@@ -392,6 +517,10 @@ public class EditorActivity extends AppCompatActivity implements
         mBreedEditText.setText("");
         mWeightEditText.setText("");
         mGenderSpinner.setSelection(0);
+        PetThumbnailLoader.getInstance(this).load(mPhotoImageView,
+                ContentUris.parseId(mCurrentPetUri), null,
+                getResources().getDimensionPixelSize(R.dimen.editor_photo_size),
+                R.drawable.photo_placeholder);
     }
     /**
      * shows a dialog warning of unsaved msg
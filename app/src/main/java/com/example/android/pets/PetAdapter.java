@@ -0,0 +1,127 @@
+package com.example.android.pets;
+
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.data.Pet;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows the catalog list. New lists arrive already diffed by {@link PetListLoader},
+ * so only the rows that changed are rebound.
+ */
+public class PetAdapter extends RecyclerView.Adapter<PetAdapter.ViewHolder> {
+    /**
+     * Called when the user taps a pet
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    private final OnPetClickListener mListener;
+    /**
+     * Text shown for pets with no breed, looked up once instead of on every bind
+     */
+    private final String mUnknownBreed;
+    private final PetThumbnailLoader mThumbnails;
+    private final int mThumbnailSize;
+    private List<Pet> mPets = Collections.emptyList();
+
+    public PetAdapter(Context context, OnPetClickListener listener) {
+        mListener = listener;
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mThumbnails = PetThumbnailLoader.getInstance(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.list_thumbnail_size);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the pets in a load result. If it was diffed against the list on screen only the
+     * changes are dispatched, otherwise every row is rebound.
+     */
+    public void setResult(PetListLoader.Result result) {
+        List<Pet> previous = mPets;
+        mPets = result.pets;
+        if (previous == result.previous) {
+            result.diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Show pets saved from an earlier run until the first load result, which is diffed
+     * against them
+     */
+    public void showSnapshot(List<Pet> pets) {
+        mPets = pets;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Return the pets currently shown
+     */
+    public List<Pet> getPets() {
+        return mPets;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mPets.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mPets.get(position).id;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Pet pet = mPets.get(position);
+        holder.nameTextView.setText(pet.name);
+        holder.summaryTextView.setText(TextUtils.isEmpty(pet.breed) ? mUnknownBreed : pet.breed);
+        // Only a memory cache hit is shown here, anything else loads in the background
+        mThumbnails.load(holder.photoImageView, pet.id, pet.photo, mThumbnailSize,
+                R.drawable.photo_placeholder);
+    }
+
+    /**
+     * Views for one list item, looked up once when the row is created
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView nameTextView;
+        final TextView summaryTextView;
+        final ImageView photoImageView;
+
+        ViewHolder(View view) {
+            super(view);
+            photoImageView = (ImageView) view.findViewById(R.id.photo);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                mListener.onPetClick(getItemId());
+            }
+        }
+    }
+}
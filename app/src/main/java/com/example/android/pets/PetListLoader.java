@@ -0,0 +1,482 @@
+package com.example.android.pets;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.util.DiffUtil;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the catalog a page at a time and diffs every new list against the one shown,
+ * both on the loader thread, so the UI only applies the item-level changes. After a burst of
+ * row changes only those pets are re-read and patched into the list shown.
+ */
+public class PetListLoader extends AsyncTaskLoader<PetListLoader.Result> {
+    /**
+     * Number of pets fetched per page
+     */
+    public static final int PAGE_SIZE = 50;
+    /**
+     * Columns read for each pet
+     */
+    static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO};
+
+    /**
+     * One load of the catalog along with the changes from the list before it
+     */
+    public static final class Result {
+        /** Search text the pets were loaded for, empty for the full catalog */
+        public final String searchQuery;
+        /** Sort and filters the catalog was loaded with, see {@link PetEntry#buildCatalogUri} */
+        public final Uri catalogUri;
+        /** The list this result was diffed against */
+        public final List<Pet> previous;
+        public final List<Pet> pets;
+        /** Changes turning {@link #previous} into {@link #pets} */
+        public final DiffUtil.DiffResult diff;
+        /** True if there may be more pets after the last one loaded */
+        public final boolean hasMore;
+        /** Table changes seen when the load started, see {@link #mChangeCount} */
+        final int changeCount;
+
+        Result(String searchQuery, Uri catalogUri, List<Pet> previous, List<Pet> pets,
+               DiffUtil.DiffResult diff, boolean hasMore, int changeCount) {
+            this.searchQuery = searchQuery;
+            this.catalogUri = catalogUri;
+            this.previous = previous;
+            this.pets = pets;
+            this.diff = diff;
+            this.hasMore = hasMore;
+            this.changeCount = changeCount;
+        }
+    }
+
+    /**
+     * Reloads when anything in the pets table changes. The provider notifies each changed
+     * row's URI and then the pets URI once per burst, or only the pets URI if any number of
+     * rows may have changed.
+     */
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri != null && isRowUri(uri)) {
+                mBurstIds.add(ContentUris.parseId(uri));
+                return;
+            }
+            if (uri != null && !uri.equals(PetEntry.CONTENT_URI)) {
+                // A summary URI, sent after the pets URI of a burst
+                return;
+            }
+            synchronized (mChangedIds) {
+                mChangeCount++;
+                if (mBurstIds.isEmpty()) {
+                    mTableChangeCount = mChangeCount;
+                } else {
+                    for (Long id : mBurstIds) {
+                        mChangedIds.put(id, mChangeCount);
+                    }
+                }
+            }
+            mBurstIds.clear();
+            onContentChanged();
+        }
+    };
+    private boolean mObserverRegistered;
+
+    /** Last result delivered, the list the UI is showing */
+    private volatile Result mResult;
+    /** Current search text, empty for the full catalog */
+    private volatile String mSearchQuery = "";
+    /** Sort and filters of the catalog, not used while searching */
+    private volatile Uri mCatalogUri = PetEntry.CONTENT_URI;
+    /** Number of pets the catalog wants loaded, grows a page at a time while scrolling */
+    private volatile int mTargetCount = PAGE_SIZE;
+    /**
+     * Number of table changes seen, main thread writes only. A load patches or refetches
+     * rather than appending if this moved since the result on screen was loaded, so a change
+     * is never lost to a load that was cancelled before delivering.
+     */
+    private volatile int mChangeCount;
+    /** Rows notified since the last pets URI change, main thread only */
+    private final Set<Long> mBurstIds = new HashSet<Long>();
+    /**
+     * _id of each pet changed since the result on screen was loaded, to the change count it
+     * was changed at. Guards itself and the change counts.
+     */
+    private final Map<Long, Integer> mChangedIds = new HashMap<Long, Integer>();
+    /** Change count of the last change that may have touched any number of pets */
+    private int mTableChangeCount;
+
+    private CancellationSignal mCancellationSignal;
+    /** Cold start prefetch, taken by the first load, null afterwards or if there was none */
+    private volatile CatalogPrefetch mPrefetch;
+    /** List on screen before the first load, ie. the prefetched snapshot */
+    private final List<Pet> mInitialPets;
+
+    /**
+     * @param prefetch started when the activity was created, or null to load from scratch.
+     *                 Its snapshot must be what the list shows until the first result.
+     */
+    public PetListLoader(Context context, CatalogPrefetch prefetch) {
+        super(context);
+        mPrefetch = prefetch;
+        mInitialPets = prefetch == null ? Collections.<Pet>emptyList() : prefetch.getSnapshot();
+    }
+
+    /**
+     * Show pets matching the search text, or the full catalog if it's empty.
+     * A search still running is cancelled.
+     */
+    public void setSearchQuery(String query) {
+        if (query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        onContentChanged();
+    }
+
+    /**
+     * Show the catalog sorted and filtered as given by a {@link PetEntry#buildCatalogUri} URI.
+     * Only the first page is loaded in the new order, more follow as the user scrolls.
+     */
+    public void setCatalogUri(Uri catalogUri) {
+        if (catalogUri.equals(mCatalogUri)) {
+            return;
+        }
+        mCatalogUri = catalogUri;
+        mTargetCount = PAGE_SIZE;
+        onContentChanged();
+    }
+
+    /**
+     * Load the next page of the catalog, unless one is already loading or there are no more pets
+     */
+    public void loadMore() {
+        Result result = mResult;
+        if (result == null || !result.hasMore || !result.searchQuery.isEmpty()
+                || !mSearchQuery.isEmpty() || mTargetCount > result.pets.size()) {
+            return;
+        }
+        mTargetCount = result.pets.size() + PAGE_SIZE;
+        onContentChanged();
+    }
+
+    @Override
+    public Result loadInBackground() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+        }
+        TraceCompat.beginSection("PetListLoader.loadInBackground");
+        CatalogPrefetch prefetch = mPrefetch;
+        mPrefetch = null;
+        try {
+            Result previous = mResult;
+            List<Pet> old = previous == null ? mInitialPets : previous.pets;
+            String query = mSearchQuery;
+            Uri catalogUri = mCatalogUri;
+            int target = mTargetCount;
+            int changeCount;
+            boolean tableChanged;
+            Set<Long> changedIds = new HashSet<Long>();
+            synchronized (mChangedIds) {
+                changeCount = mChangeCount;
+                tableChanged = previous != null && mTableChangeCount > previous.changeCount;
+                for (Map.Entry<Long, Integer> entry : mChangedIds.entrySet()) {
+                    if (previous != null && entry.getValue() > previous.changeCount) {
+                        changedIds.add(entry.getKey());
+                    }
+                }
+            }
+            boolean changed = previous != null && previous.changeCount != changeCount;
+
+            List<Pet> pets;
+            boolean hasMore;
+            if (!query.isEmpty()) {
+                pets = queryPets(PetEntry.buildSearchUri(query), null, null);
+                hasMore = false;
+            } else if (!changed && previous != null && previous.searchQuery.isEmpty()
+                    && previous.catalogUri.equals(catalogUri) && previous.hasMore
+                    && target > old.size()) {
+                // Nothing changed, only fetch the page after the last pet shown
+                pets = new ArrayList<Pet>(old);
+                hasMore = fetchMore(pets, catalogUri, target);
+            } else if (changed && !tableChanged && previous.searchQuery.isEmpty()
+                    && previous.catalogUri.equals(catalogUri)) {
+                // Only some pets changed, re-read just those and top the list back up if
+                // any of them left it
+                pets = patchPets(old, changedIds, catalogUri, previous.hasMore);
+                hasMore = previous.hasMore;
+                if (hasMore && pets.size() < target) {
+                    hasMore = fetchMore(pets, catalogUri, target);
+                }
+            } else {
+                // The prefetched first page, or else refetch as many pets as are shown,
+                // the diff below keeps the UI update small
+                pets = prefetch != null && target == PAGE_SIZE
+                        ? prefetch.takeFirstPage(catalogUri) : null;
+                if (pets == null) {
+                    pets = queryPets(PetEntry.buildPageUri(catalogUri, null, -1, target),
+                            null, null);
+                }
+                hasMore = pets.size() == target;
+            }
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new PetDiffCallback(old, pets));
+            return new Result(query, catalogUri, old, pets, diff, hasMore, changeCount);
+        } finally {
+            if (prefetch != null) {
+                prefetch.release();
+            }
+            TraceCompat.endSection();
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    /**
+     * Append the catalog's pets after the last one in the list until it holds the target
+     * count, return true if there may be more after them
+     */
+    private boolean fetchMore(List<Pet> pets, Uri catalogUri, int target) {
+        int limit = target - pets.size();
+        Uri uri;
+        if (pets.isEmpty()) {
+            uri = PetEntry.buildPageUri(catalogUri, null, -1, limit);
+        } else {
+            Pet last = pets.get(pets.size() - 1);
+            uri = PetEntry.buildPageUri(catalogUri, sortKey(catalogUri, last), last.id, limit);
+        }
+        List<Pet> page = queryPets(uri, null, null);
+        pets.addAll(page);
+        return page.size() == limit;
+    }
+
+    /**
+     * Return the list shown with the changed pets re-read into their place in the catalog's
+     * order, or left out if they were deleted or no longer pass the filters. While there are
+     * more pets after the list, a changed pet that now sorts after its last one is left for a
+     * later page.
+     */
+    private List<Pet> patchPets(List<Pet> old, Set<Long> changedIds, Uri catalogUri,
+                                boolean hasMore) {
+        if (changedIds.isEmpty()) {
+            return new ArrayList<Pet>(old);
+        }
+        List<Pet> kept = new ArrayList<Pet>(old.size());
+        for (Pet pet : old) {
+            if (!changedIds.contains(pet.id)) {
+                kept.add(pet);
+            }
+        }
+        StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+        String[] selectionArgs = new String[changedIds.size()];
+        int arg = 0;
+        for (Long id : changedIds) {
+            selection.append(arg == 0 ? "?" : ",?");
+            selectionArgs[arg++] = String.valueOf(id);
+        }
+        selection.append(')');
+        // The catalog's page applies its filters and order to the changed pets
+        List<Pet> changed = queryPets(PetEntry.buildPageUri(catalogUri, null, -1,
+                changedIds.size()), selection.toString(), selectionArgs);
+
+        Comparator<Pet> order = Pet.catalogOrder(
+                catalogUri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT));
+        List<Pet> pets = new ArrayList<Pet>(kept.size() + changed.size());
+        int next = 0;
+        for (Pet pet : changed) {
+            if (hasMore && (kept.isEmpty()
+                    || order.compare(pet, kept.get(kept.size() - 1)) > 0)) {
+                break;
+            }
+            while (next < kept.size() && order.compare(kept.get(next), pet) < 0) {
+                pets.add(kept.get(next++));
+            }
+            pets.add(pet);
+        }
+        pets.addAll(kept.subList(next, kept.size()));
+        return pets;
+    }
+
+    /**
+     * Return true for a single pet's URI, ie. pets/#
+     */
+    private static boolean isRowUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return PetContract.CONTENT_AUTHORITY.equals(uri.getAuthority()) && segments.size() == 2
+                && PetContract.PATH_PETS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
+    /**
+     * Return the value the catalog is sorted by for a pet, which the next page starts after,
+     * or null if it's sorted by _id
+     */
+    private static String sortKey(Uri catalogUri, Pet pet) {
+        String sort = catalogUri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        if (PetEntry.SORT_NAME.equals(sort)) {
+            return pet.name;
+        } else if (PetEntry.SORT_BREED.equals(sort)) {
+            return pet.breed;
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            return String.valueOf(pet.weight);
+        }
+        return null;
+    }
+
+    /**
+     * Read every pet the URI returns into a list
+     */
+    private List<Pet> queryPets(Uri uri, String selection, String[] selectionArgs) {
+        Cursor cursor = getContext().getContentResolver().query(uri, PROJECTION, selection,
+                selectionArgs, null, mCancellationSignal);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return Pet.readAll(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(Result result) {
+        if (isReset()) {
+            return;
+        }
+        mResult = result;
+        // The changes this result was loaded after are on screen now
+        synchronized (mChangedIds) {
+            Iterator<Integer> changeCounts = mChangedIds.values().iterator();
+            while (changeCounts.hasNext()) {
+                if (changeCounts.next() <= result.changeCount) {
+                    changeCounts.remove();
+                }
+            }
+        }
+        if (isStarted()) {
+            super.deliverResult(result);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            // Row URIs say which pets to re-read, the load waits for the burst's list change
+            getContext().getContentResolver().registerContentObserver(
+                    PetEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mResult != null) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mResult = null;
+        CatalogPrefetch prefetch = mPrefetch;
+        mPrefetch = null;
+        if (prefetch != null) {
+            prefetch.release();
+        }
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+    }
+
+    /**
+     * Pets are the same item if they have the same _id, and unchanged if every column matches
+     */
+    private static final class PetDiffCallback extends DiffUtil.Callback {
+        private final List<Pet> mOld;
+        private final List<Pet> mNew;
+
+        PetDiffCallback(List<Pet> oldPets, List<Pet> newPets) {
+            mOld = oldPets;
+            mNew = newPets;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.get(oldItemPosition).id == mNew.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.get(oldItemPosition).equals(mNew.get(newItemPosition));
+        }
+    }
+}
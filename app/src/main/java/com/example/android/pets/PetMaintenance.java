@@ -0,0 +1,96 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Database upkeep for when the device isn't in use: compacts the change feed, deletes unused
+ * photo files, rebuilds a file from before incremental vacuum once, returns free pages to the
+ * file system a step at a time and refreshes the query planner statistics.
+ * Runs as an idle job from Lollipop, and on the {@link PetWriter} thread before that.
+ */
+public final class PetMaintenance {
+    public static final String LOG_TAG = PetMaintenance.class.getSimpleName();
+
+    /**
+     * Pages freed per step, each step holds the write lock for about as long as a chunk
+     * of a chunked delete
+     */
+    private static final int RECLAIM_STEP_PAGES = 256;
+
+    /**
+     * Tells a run to stop between two steps
+     */
+    interface StopSignal {
+        boolean isStopped();
+    }
+
+    private PetMaintenance() {
+    }
+
+    /**
+     * Run the upkeep once the device is idle and charging, unless a run is already waiting.
+     * Does nothing without JobScheduler, there's no way to tell the device is idle.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PetMaintenanceService.schedule(context);
+        }
+    }
+
+    /**
+     * Run the upkeep after a large delete left the file mostly empty. Waits for the device
+     * to be idle where JobScheduler exists, and is queued on the writer thread otherwise.
+     */
+    public static void scheduleAfterDelete(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PetMaintenanceService.schedule(context);
+        } else {
+            PetWriter.getInstance(context).runMaintenance();
+        }
+    }
+
+    /**
+     * Run every step of the upkeep, checking the stop signal between steps
+     *
+     * @param stop stop signal, or null to run to the end
+     * @return false if the run was stopped before the end
+     */
+    static boolean run(ContentResolver resolver, StopSignal stop) {
+        try {
+            resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_COMPACT_CHANGES, null, null);
+            resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_DELETE_UNUSED_PHOTOS, null, null);
+            if (stop != null && stop.isStopped()) {
+                return false;
+            }
+            // The only step that can't be split, a no-op after the first run
+            resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_ENABLE_INCREMENTAL_VACUUM,
+                    null, null);
+            int freePages = Integer.MAX_VALUE;
+            while (true) {
+                if (stop != null && stop.isStopped()) {
+                    return false;
+                }
+                Bundle result = resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_RECLAIM_SPACE,
+                        String.valueOf(RECLAIM_STEP_PAGES), null);
+                int left = result == null ? 0 : result.getInt(PetContract.KEY_FREE_PAGES);
+                // Stop once every page is back, or if a step got nothing back
+                if (left == 0 || left >= freePages) {
+                    break;
+                }
+                freePages = left;
+            }
+            resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_OPTIMIZE, null, null);
+        } catch (RuntimeException e) {
+            // A bad argument, or the database failed a step, the next run tries again
+            Log.e(LOG_TAG, "Database maintenance failed", e);
+        }
+        return true;
+    }
+}
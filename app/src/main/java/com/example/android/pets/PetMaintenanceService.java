@@ -0,0 +1,64 @@
+package com.example.android.pets;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Runs {@link PetMaintenance} while the device is idle and charging. The job is stopped
+ * between steps when the device is used again, and tried again later.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PetMaintenanceService extends JobService {
+    private static final int JOB_ID = 1;
+
+    private volatile boolean mStopped;
+
+    /**
+     * Schedule the job unless it's already waiting to run
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, PetMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        // Jobs start on the main thread, the steps are database writes
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean finished = PetMaintenance.run(getContentResolver(),
+                        new PetMaintenance.StopSignal() {
+                            @Override
+                            public boolean isStopped() {
+                                return mStopped;
+                            }
+                        });
+                jobFinished(params, !finished);
+            }
+        }, "PetMaintenance").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        return true;
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shows pet photo thumbnails without ever decoding on the main thread, which only reads the
+ * memory cache. Misses are loaded in the background from a disk cache of small JPEGs, and
+ * only decoded from the photo file the first time a photo is shown at a size. Photo file
+ * names change whenever a photo does, so neither cache is ever stale.
+ */
+public final class PetThumbnailLoader {
+    public static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+    /**
+     * Bytes of thumbnails kept on disk, the least recently used go first
+     */
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    /**
+     * Share of the heap the memory cache may hold, ie. an eighth
+     */
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+    private static final int THREADS = 2;
+    private static final int JPEG_QUALITY = 85;
+
+    private static PetThumbnailLoader sInstance;
+
+    private final ContentResolver mResolver;
+    private final File mDiskCacheDirectory;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Load running or waiting for each view, main thread only. A view that is rebound cancels
+     * its load, so a fling only decodes the rows it stops on.
+     */
+    private final WeakHashMap<ImageView, LoadTask> mLoads = new WeakHashMap<ImageView, LoadTask>();
+    /**
+     * Guards writing and trimming the disk cache
+     */
+    private final Object mDiskLock = new Object();
+
+    private PetThumbnailLoader(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+        mDiskCacheDirectory = new File(context.getApplicationContext().getCacheDir(),
+                DISK_CACHE_DIRECTORY);
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / MEMORY_CACHE_DIVISOR);
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailLoader(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show a pet's photo cropped to a square of sizePx, or the placeholder if it has none.
+     * A cached thumbnail is shown at once, otherwise the placeholder shows until it loads.
+     * Call on the main thread only, and don't set the view's image by other means.
+     *
+     * @param photo the pet's {@link PetEntry#COLUMN_PET_PHOTO}, may be null
+     */
+    public void load(ImageView view, long petId, String photo, int sizePx, int placeholderResId) {
+        LoadTask previous = mLoads.remove(view);
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (photo == null) {
+            showPlaceholder(view, placeholderResId);
+            return;
+        }
+        String key = photo + "_" + sizePx;
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            showBitmap(view, cached);
+            return;
+        }
+        showPlaceholder(view, placeholderResId);
+        LoadTask task = new LoadTask(view, PetEntry.buildPhotoUri(petId), key, sizePx);
+        mLoads.put(view, task);
+        task.mFuture = mExecutor.submit(task);
+    }
+
+    /**
+     * Show a placeholder unless the view already shows it. setImageResource inflates a new
+     * drawable every time, which would allocate on every bind of a pet without a photo.
+     */
+    private static void showPlaceholder(ImageView view, int placeholderResId) {
+        Object shown = view.getTag(R.id.thumbnail_placeholder);
+        if (shown instanceof Integer && (Integer) shown == placeholderResId) {
+            return;
+        }
+        view.setImageResource(placeholderResId);
+        view.setTag(R.id.thumbnail_placeholder, placeholderResId);
+    }
+
+    private static void showBitmap(ImageView view, Bitmap bitmap) {
+        view.setImageBitmap(bitmap);
+        view.setTag(R.id.thumbnail_placeholder, null);
+    }
+
+    /**
+     * Return the thumbnail from the disk cache, or decode it from the photo and cache it
+     */
+    private Bitmap loadThumbnail(Uri photoUri, String key, int sizePx) {
+        File cached = new File(mDiskCacheDirectory, key + ".jpg");
+        if (cached.isFile()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getPath());
+            if (bitmap != null) {
+                // Marks it recently used for the trim
+                cached.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+        Bitmap photo;
+        try {
+            photo = decodeSampled(mResolver, photoUri, sizePx);
+        } catch (IOException e) {
+            // The photo was replaced since the list loaded, the new one is on its way
+            Log.w(LOG_TAG, "Could not read " + photoUri, e);
+            return null;
+        }
+        if (photo == null) {
+            return null;
+        }
+        Bitmap thumbnail = ThumbnailUtils.extractThumbnail(photo, sizePx, sizePx,
+                ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+        writeDiskCache(cached, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Write a thumbnail to the disk cache under a temporary name, then trim the cache
+     */
+    private void writeDiskCache(File file, Bitmap thumbnail) {
+        synchronized (mDiskLock) {
+            if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+                return;
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            try {
+                FileOutputStream out = new FileOutputStream(temp);
+                try {
+                    thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not cache " + file, e);
+                temp.delete();
+            }
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Delete the least recently used thumbnails until the disk cache fits its size
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_SIZE) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= DISK_CACHE_SIZE) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * Decode an image at the largest power of two reduction that keeps its short side at least
+     * minSizePx, so a large photo never has to fit in memory at full size. The image is opened
+     * once to read its bounds and again to decode, so a pipe works as well as a file.
+     *
+     * @return the bitmap, or null if the image could not be decoded
+     */
+    static Bitmap decodeSampled(ContentResolver resolver, Uri uri, int minSizePx)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= minSizePx
+                && options.outHeight / (sampleSize * 2) >= minSizePx) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return decode(resolver, uri, options);
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        ParcelFileDescriptor file = resolver.openFileDescriptor(uri, "r");
+        if (file == null) {
+            throw new IOException("No image at " + uri);
+        }
+        try {
+            return BitmapFactory.decodeFileDescriptor(file.getFileDescriptor(), null, options);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Loads one thumbnail in the background and shows it, unless the view was rebound since
+     */
+    private final class LoadTask implements Runnable {
+        private final ImageView mView;
+        private final Uri mPhotoUri;
+        private final String mKey;
+        private final int mSizePx;
+        private volatile boolean mCancelled;
+        Future<?> mFuture;
+
+        LoadTask(ImageView view, Uri photoUri, String key, int sizePx) {
+            mView = view;
+            mPhotoUri = photoUri;
+            mKey = key;
+            mSizePx = sizePx;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            mFuture.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            // Another view may have loaded it while this one waited
+            Bitmap bitmap = mMemoryCache.get(mKey);
+            if (bitmap == null) {
+                bitmap = loadThumbnail(mPhotoUri, mKey, mSizePx);
+                if (bitmap == null) {
+                    return;
+                }
+                mMemoryCache.put(mKey, bitmap);
+            }
+            final Bitmap thumbnail = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mLoads.get(mView) == LoadTask.this) {
+                        mLoads.remove(mView);
+                        showBitmap(mView, thumbnail);
+                    }
+                }
+            });
+        }
+    }
+}
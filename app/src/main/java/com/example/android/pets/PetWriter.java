@@ -0,0 +1,450 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs pet inserts, updates and deletes one at a time on a background thread and reports
+ * the results on the main thread, so the UI never waits on the database. A write that fails
+ * is logged and its callback gets the failure result.
+ * Updates to a pet still waiting in the queue are merged into one write.
+ */
+public final class PetWriter {
+    public static final String LOG_TAG = PetWriter.class.getSimpleName();
+
+    /**
+     * Writes that can wait in the queue before new ones are refused
+     */
+    private static final int QUEUE_CAPACITY = 64;
+    /**
+     * Pets deleted per transaction by {@link #deleteAll}
+     */
+    private static final int DELETE_CHUNK_SIZE = 500;
+    /**
+     * Picked photos are scaled down by powers of two while their short side stays at least this
+     * many pixels, plenty for the editor and the list thumbnails
+     */
+    private static final int PHOTO_SIZE = 1024;
+    private static final int PHOTO_QUALITY = 85;
+
+    /**
+     * Receives the result of a write on the main thread
+     */
+    public interface Callback<T> {
+        void onComplete(T result);
+    }
+
+    /**
+     * Receives the progress of a chunked write on the main thread, then its result
+     */
+    public interface ProgressCallback extends Callback<Integer> {
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * Stops a chunked write before its next chunk, the chunks already written stay written
+     */
+    public static final class Cancellable {
+        private volatile boolean mCancelled;
+
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private static PetWriter sInstance;
+
+    private final Context mContext;
+    private final ContentResolver mResolver;
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY));
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Updates waiting in the queue by URI, guarded by itself
+     */
+    private final HashMap<Uri, UpdateTask> mPendingUpdates = new HashMap<Uri, UpdateTask>();
+    /**
+     * Delete of every pet still running, main thread only, null when none is. Kept here rather
+     * than in an activity so it outlives configuration changes.
+     */
+    private DeleteAllTask mDeleteAll;
+
+    private PetWriter(Context context) {
+        mContext = context.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+    }
+
+    public static synchronized PetWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriter(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a pet, the callback gets the new pet's URI or null if the insert failed
+     */
+    public void insert(final Uri uri, final ContentValues values, final Callback<Uri> callback) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = mResolver.insert(uri, values);
+                } catch (RuntimeException e) {
+                    // Invalid values, or the database failed the write
+                    Log.e(LOG_TAG, "Failed to insert " + uri, e);
+                }
+                postResult(callback, newUri);
+            }
+        }, callback, null);
+    }
+
+    /**
+     * Insert many pets in one transaction, the callback gets the number of rows inserted
+     */
+    public void bulkInsert(final Uri uri, final ContentValues[] values,
+                           final Callback<Integer> callback) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                int rowsInserted = 0;
+                try {
+                    rowsInserted = mResolver.bulkInsert(uri, values);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to bulk insert " + uri, e);
+                }
+                postResult(callback, rowsInserted);
+            }
+        }, callback, 0);
+    }
+
+    /**
+     * Update pets, the callback gets the number of rows updated. If an update to the same
+     * URI is still waiting, the values are merged into it and both callbacks get its result.
+     */
+    public void update(Uri uri, ContentValues values, Callback<Integer> callback) {
+        synchronized (mPendingUpdates) {
+            UpdateTask pending = mPendingUpdates.get(uri);
+            if (pending != null) {
+                pending.merge(values, callback);
+                return;
+            }
+            UpdateTask task = new UpdateTask(uri, values, callback);
+            mPendingUpdates.put(uri, task);
+            if (!submit(task, null, null)) {
+                mPendingUpdates.remove(uri);
+                postResult(callback, 0);
+            }
+        }
+    }
+
+    /**
+     * Delete pets, the callback gets the number of rows deleted
+     */
+    public void delete(final Uri uri, final Callback<Integer> callback) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                int rowsDeleted = 0;
+                try {
+                    rowsDeleted = mResolver.delete(uri, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to delete " + uri, e);
+                }
+                postResult(callback, rowsDeleted);
+            }
+        }, callback, 0);
+    }
+
+    /**
+     * Delete every pet in chunks of {@link #DELETE_CHUNK_SIZE}, each in its own transaction,
+     * so readers and other writers never wait longer than one chunk. Pets added after the
+     * delete starts are kept. The callback gets the progress after each chunk, then the
+     * number of rows deleted. If a delete is already running the callback is attached to it
+     * instead of starting another. Main thread only.
+     */
+    public Cancellable deleteAll(ProgressCallback callback) {
+        if (mDeleteAll != null) {
+            return attachDeleteAll(callback);
+        }
+        DeleteAllTask task = new DeleteAllTask(new Cancellable(), callback);
+        if (submit(task, callback, 0)) {
+            mDeleteAll = task;
+        }
+        return task.mCancellable;
+    }
+
+    /**
+     * Send the progress and result of the running delete of every pet to a new callback,
+     * ie. from an activity recreated after a configuration change. The last progress is
+     * posted to it straight away. Returns the delete to cancel it with, or null if none is
+     * running. Main thread only.
+     */
+    public Cancellable attachDeleteAll(ProgressCallback callback) {
+        final DeleteAllTask task = mDeleteAll;
+        if (task == null) {
+            return null;
+        }
+        task.mCallback = callback;
+        if (task.mShownTotal > 0) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (task.mCallback != null) {
+                        task.mCallback.onProgress(task.mShownDone, task.mShownTotal);
+                    }
+                }
+            });
+        }
+        return task.mCancellable;
+    }
+
+    /**
+     * Stop sending the running delete's progress to a callback, ie. when its activity is
+     * destroyed. The delete carries on. Main thread only.
+     */
+    public void detachDeleteAll(ProgressCallback callback) {
+        if (mDeleteAll != null && mDeleteAll.mCallback == callback) {
+            mDeleteAll.mCallback = null;
+        }
+    }
+
+    /**
+     * Replace a pet's photo with an image from another app, ie. one picked with
+     * ACTION_GET_CONTENT. It is scaled down and stored as JPEG, the callback gets whether
+     * it was written.
+     */
+    public void setPhoto(final long id, final Uri image, final Callback<Boolean> callback) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                boolean written = false;
+                try {
+                    Bitmap photo = PetThumbnailLoader.decodeSampled(mResolver, image, PHOTO_SIZE);
+                    if (photo != null) {
+                        OutputStream out = mResolver.openOutputStream(PetEntry.buildPhotoUri(id));
+                        try {
+                            written = photo.compress(Bitmap.CompressFormat.JPEG, PHOTO_QUALITY, out);
+                        } finally {
+                            out.close();
+                            photo.recycle();
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to set photo of pet " + id, e);
+                } catch (RuntimeException e) {
+                    // The app that provided the image no longer grants access to it,
+                    // or the pet is gone
+                    Log.e(LOG_TAG, "Failed to set photo of pet " + id, e);
+                }
+                postResult(callback, written);
+            }
+        }, callback, false);
+    }
+
+    /**
+     * Run database upkeep on the writer thread, for devices without JobScheduler
+     */
+    void runMaintenance() {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                PetMaintenance.run(mResolver, null);
+            }
+        }, null, null);
+    }
+
+    /**
+     * Queue a write. If the queue is full the callback gets the failure result instead.
+     */
+    private <T> boolean submit(Runnable write, Callback<T> callback, T failure) {
+        try {
+            mExecutor.execute(write);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.e(LOG_TAG, "Write queue full, dropping write", e);
+            if (callback != null) {
+                postResult(callback, failure);
+            }
+            return false;
+        }
+    }
+
+    private <T> void postResult(final Callback<T> callback, final T result) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+
+    /**
+     * Deletes one chunk per run, then goes to the back of the queue so writes submitted
+     * meanwhile run between chunks instead of after the whole delete
+     */
+    private final class DeleteAllTask implements Runnable {
+        private final Cancellable mCancellable;
+        /** Receives the progress, main thread only, null while no activity is attached */
+        private ProgressCallback mCallback;
+        /** Last progress posted, main thread only, for a callback attached later */
+        private int mShownDone;
+        private int mShownTotal;
+        /** Highest _id when the delete started, -1 until the first run */
+        private long mMaxId = -1;
+        private int mTotal;
+        private int mDeleted;
+
+        DeleteAllTask(Cancellable cancellable, ProgressCallback callback) {
+            mCancellable = cancellable;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (mMaxId < 0) {
+                    readBounds();
+                }
+                while (!mCancellable.isCancelled()) {
+                    int rows = mResolver.delete(PetEntry.buildDeleteChunkUri(DELETE_CHUNK_SIZE),
+                            PetEntry._ID + "<=?", new String[]{String.valueOf(mMaxId)});
+                    if (rows == 0) {
+                        break;
+                    }
+                    mDeleted += rows;
+                    postProgress(mDeleted, Math.max(mTotal, mDeleted));
+                    try {
+                        mExecutor.execute(this);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // Queue is full, carry on with the next chunk here
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to delete all pets", e);
+            }
+            // Reached on failure too, so the delete is never left attached
+            final int deleted = mDeleted;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mDeleteAll = null;
+                    // Give the freed space back to the file system once the device is idle
+                    PetMaintenance.scheduleAfterDelete(mContext);
+                    if (mCallback != null) {
+                        mCallback.onComplete(deleted);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Read the number of pets for the progress, and the highest _id to delete up to
+         */
+        private void readBounds() {
+            Cursor cursor = mResolver.query(PetEntry.CONTENT_URI,
+                    new String[]{"COUNT(*)", "MAX(" + PetEntry._ID + ")"}, null, null, null);
+            mMaxId = 0;
+            if (cursor == null) {
+                return;
+            }
+            try {
+                if (cursor.moveToFirst()) {
+                    mTotal = cursor.getInt(0);
+                    mMaxId = cursor.getLong(1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private void postProgress(final int done, final int total) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mShownDone = done;
+                    mShownTotal = total;
+                    if (mCallback != null) {
+                        mCallback.onProgress(done, total);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * An update that later updates to the same URI can merge into until it starts running
+     */
+    private final class UpdateTask implements Runnable {
+        private final Uri mUri;
+        private final ContentValues mValues;
+        private Callback<Integer> mCallback;
+
+        UpdateTask(Uri uri, ContentValues values, Callback<Integer> callback) {
+            mUri = uri;
+            mValues = new ContentValues(values);
+            mCallback = callback;
+        }
+
+        /**
+         * Called with mPendingUpdates held
+         */
+        void merge(ContentValues values, final Callback<Integer> callback) {
+            mValues.putAll(values);
+            if (callback == null) {
+                return;
+            }
+            final Callback<Integer> earlier = mCallback;
+            mCallback = earlier == null ? callback : new Callback<Integer>() {
+                @Override
+                public void onComplete(Integer result) {
+                    earlier.onComplete(result);
+                    callback.onComplete(result);
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            // Stop accepting merges before the values are read
+            Callback<Integer> callback;
+            synchronized (mPendingUpdates) {
+                mPendingUpdates.remove(mUri);
+                callback = mCallback;
+            }
+            int rowsUpdated = 0;
+            try {
+                rowsUpdated = mResolver.update(mUri, mValues, null, null);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to update " + mUri, e);
+            }
+            postResult(callback, rowsUpdated);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable copy of one row of the pets table
+ */
+public final class Pet {
+    public final long id;
+    public final String name;
+    public final String breed;
+    public final int gender;
+    public final int weight;
+    /** File name of the photo served at {@link PetContract.PetEntry#buildPhotoUri}, or null */
+    public final String photo;
+
+    public Pet(long id, String name, String breed, int gender, int weight, String photo) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+        this.photo = photo;
+    }
+
+    /**
+     * Read every pet in a cursor into a list. The cursor needs every pet column, and their
+     * indexes are looked up once rather than per row.
+     */
+    public static List<Pet> readAll(Cursor cursor) {
+        List<Pet> pets = new ArrayList<Pet>(cursor.getCount());
+        int idColumnIndex = cursor.getColumnIndex(PetEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
+        int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+        int genderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
+        int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+        int photoColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+        while (cursor.moveToNext()) {
+            pets.add(new Pet(cursor.getLong(idColumnIndex),
+                    cursor.getString(nameColumnIndex),
+                    cursor.getString(breedColumnIndex),
+                    cursor.getInt(genderColumnIndex),
+                    cursor.getInt(weightColumnIndex),
+                    cursor.getString(photoColumnIndex)));
+        }
+        return pets;
+    }
+
+    /**
+     * Return the order SQLite gives a catalog sorted by one of the PetEntry.SORT_ values, or
+     * by _id if the sort is null. Ties go by _id, as they do in a page.
+     */
+    public static Comparator<Pet> catalogOrder(final String sort) {
+        return new Comparator<Pet>() {
+            @Override
+            public int compare(Pet a, Pet b) {
+                int result = 0;
+                if (PetEntry.SORT_NAME.equals(sort)) {
+                    result = PetShards.compareText(a.name, b.name, true);
+                } else if (PetEntry.SORT_BREED.equals(sort)) {
+                    // SQLite sorts null first
+                    if (a.breed == null || b.breed == null) {
+                        result = a.breed == null ? (b.breed == null ? 0 : -1) : 1;
+                    } else {
+                        result = PetShards.compareText(a.breed, b.breed, false);
+                    }
+                } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+                    result = PetShards.compareLongs(a.weight, b.weight);
+                }
+                return result != 0 ? result : PetShards.compareLongs(a.id, b.id);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+        Pet pet = (Pet) o;
+        return id == pet.id && gender == pet.gender && weight == pet.weight
+                && TextUtils.equals(name, pet.name) && TextUtils.equals(breed, pet.breed)
+                && TextUtils.equals(photo, pet.photo);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (breed != null ? breed.hashCode() : 0);
+        result = 31 * result + gender;
+        result = 31 * result + weight;
+        result = 31 * result + (photo != null ? photo.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.pets.data;
+
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Bounded cache of recently read pets, keyed by _id.
+ * Every write through the provider invalidates it, and a read that raced with a write
+ * isn't cached, so a hit always matches the committed row.
+ */
+final class PetCache {
+    /**
+     * Every column a cached pet can answer
+     */
+    static final String[] ALL_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO};
+
+    private final LruCache<Long, Pet> mPets;
+    /** Bumped on every invalidation, guarded by this */
+    private long mGeneration;
+    /** Lookups by {@link #get}, {@link #peek} isn't counted. Guarded by this. */
+    private int mHitCount;
+    private int mMissCount;
+
+    PetCache(int maxSize) {
+        mPets = new LruCache<Long, Pet>(maxSize);
+    }
+
+    /**
+     * Return a cached pet for a query, counted in {@link #hitCount} or {@link #missCount}
+     */
+    synchronized Pet get(long id) {
+        Pet pet = mPets.get(id);
+        if (pet == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return pet;
+    }
+
+    /**
+     * Return a cached pet without counting the lookup, for the provider's own checks
+     */
+    synchronized Pet peek(long id) {
+        return mPets.get(id);
+    }
+
+    /**
+     * Return a token to pass to {@link #put} for a read starting now
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache a pet read from the database, unless a write invalidated the cache since the
+     * read started
+     */
+    synchronized void put(Pet pet, long generation) {
+        if (generation == mGeneration) {
+            mPets.put(pet.id, pet);
+        }
+    }
+
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mPets.evictAll();
+    }
+
+    synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    synchronized int missCount() {
+        return mMissCount;
+    }
+
+    synchronized int evictionCount() {
+        return mPets.evictionCount();
+    }
+
+    synchronized int size() {
+        return mPets.size();
+    }
+
+    /**
+     * Whether a cached pet can answer a query for these columns
+     */
+    static boolean canProject(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a cursor holding the pet, or no rows if pet is null
+     */
+    static MatrixCursor toCursor(Pet pet, String[] projection) {
+        String[] columns = projection == null ? ALL_COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (pet == null) {
+            return cursor;
+        }
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (columnIndex(columns[i])) {
+                case 0:
+                    row[i] = pet.id;
+                    break;
+                case 1:
+                    row[i] = pet.name;
+                    break;
+                case 2:
+                    row[i] = pet.breed;
+                    break;
+                case 3:
+                    row[i] = pet.gender;
+                    break;
+                case 4:
+                    row[i] = pet.weight;
+                    break;
+                default:
+                    row[i] = pet.photo;
+                    break;
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < ALL_COLUMNS.length; i++) {
+            if (ALL_COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
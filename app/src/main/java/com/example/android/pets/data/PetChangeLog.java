@@ -0,0 +1,96 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import com.example.android.pets.data.PetContract.ChangeEntry;
+
+/**
+ * Reads and compacts the change log kept by triggers on the pets table, see {@link ChangeEntry}
+ */
+final class PetChangeLog {
+    /**
+     * Number of changes kept after compacting, older ones are truncated
+     */
+    static final int MAX_ENTRIES = 10000;
+
+    private PetChangeLog() {
+    }
+
+    /**
+     * Return the changes after a sequence number, oldest first, or a single
+     * {@link ChangeEntry#OPERATION_RESET} row if some of them were truncated
+     *
+     * @param limit maximum number of changes, or null for no limit
+     */
+    static Cursor query(SQLiteDatabase database, String[] projection, long since, String limit,
+                        CancellationSignal cancellationSignal) {
+        Cursor cursor = database.query(false, ChangeEntry.TABLE_NAME, projection,
+                ChangeEntry.COLUMN_SEQUENCE + ">?", new String[]{String.valueOf(since)}, null,
+                null, ChangeEntry.COLUMN_SEQUENCE + " ASC", limit, cancellationSignal);
+        try {
+            // Run the query before reading the truncation point. That point only moves
+            // forward, so if it's still behind since now it was when the changes were read.
+            cursor.getCount();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+        if (since >= truncatedSequence(database)) {
+            return cursor;
+        }
+        cursor.close();
+        MatrixCursor reset = new MatrixCursor(ChangeEntry.COLUMNS, 1);
+        reset.addRow(new Object[]{latestSequence(database), null, ChangeEntry.OPERATION_RESET});
+        return reset;
+    }
+
+    /**
+     * Drop every change superseded by a later change to the same pet, then truncate the
+     * oldest changes beyond {@link #MAX_ENTRIES}. Must run in a write transaction.
+     *
+     * @return number of changes dropped
+     */
+    static int compact(SQLiteDatabase database) {
+        int removed = database.delete(ChangeEntry.TABLE_NAME, ChangeEntry.COLUMN_SEQUENCE
+                + " NOT IN (SELECT MAX(" + ChangeEntry.COLUMN_SEQUENCE + ") FROM "
+                + ChangeEntry.TABLE_NAME + " GROUP BY " + ChangeEntry.COLUMN_PET_ID + ")", null);
+        long count = DatabaseUtils.queryNumEntries(database, ChangeEntry.TABLE_NAME);
+        if (count > MAX_ENTRIES) {
+            // Sequence number of the newest change to truncate
+            long truncated = DatabaseUtils.longForQuery(database, "SELECT "
+                    + ChangeEntry.COLUMN_SEQUENCE + " FROM " + ChangeEntry.TABLE_NAME
+                    + " ORDER BY " + ChangeEntry.COLUMN_SEQUENCE + " LIMIT 1 OFFSET "
+                    + (count - MAX_ENTRIES - 1), null);
+            removed += database.delete(ChangeEntry.TABLE_NAME, ChangeEntry.COLUMN_SEQUENCE
+                    + "<=?", new String[]{String.valueOf(truncated)});
+            database.execSQL("UPDATE " + ChangeEntry.TRUNCATED_TABLE_NAME + " SET "
+                    + ChangeEntry.COLUMN_SEQUENCE + "=?", new Object[]{truncated});
+        }
+        return removed;
+    }
+
+    /**
+     * Return the sequence number the log is truncated up to, changes at or before it are gone
+     */
+    private static long truncatedSequence(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT " + ChangeEntry.COLUMN_SEQUENCE
+                + " FROM " + ChangeEntry.TRUNCATED_TABLE_NAME, null);
+    }
+
+    /**
+     * Return the sequence number of the last change logged, even if it was since dropped
+     */
+    private static long latestSequence(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT seq FROM sqlite_sequence WHERE name=?",
+                new String[]{ChangeEntry.TABLE_NAME});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.HashSet;
+
+/**
+ * Collects pet changes and sends them as one burst of notifications.
+ * Changed rows are notified on their own pets/# URI, followed by a single change for the
+ * pets list that doesn't wake observers of other rows. Changes to rows that aren't known
+ * individually, ie. a delete by selection, notify the whole table.
+ * <p>
+ * Cursors over many pets are given one of {@link #SUMMARY_URIS} to watch rather than the
+ * pets URI. A cursor watches its URI and everything under it, so on the pets URI it would be
+ * woken by every row URI of a burst. Each summary URI is notified once per burst instead.
+ */
+final class PetChangeNotifier {
+    /**
+     * How long changes are collected before they are sent
+     */
+    private static final long WINDOW_MS = 50;
+    /**
+     * Past this many rows a burst is sent as a change to the whole table
+     */
+    private static final int MAX_ROW_URIS = 64;
+
+    /** Watched by cursors of pets lists and pages, only ever notified, never queried */
+    static final Uri LIST_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, "list");
+    /** Watched by search cursors, a parent of every search URI */
+    static final Uri SEARCH_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PetContract.PATH_SEARCH);
+    /**
+     * URIs notified once per burst of row changes. They are under the pets URI, so a change
+     * to the whole table reaches them too. Breed stats are under {@link PetEntry#STATS_URI}.
+     */
+    private static final Uri[] SUMMARY_URIS = {
+            LIST_URI, SEARCH_URI, PetEntry.STATS_URI, ChangeEntry.CONTENT_URI};
+
+    /**
+     * A set of changed rows, or a change to the whole table
+     */
+    static final class Changes {
+        private final HashSet<Long> mIds = new HashSet<Long>();
+        private boolean mTable;
+
+        void addRow(long id) {
+            if (!mTable) {
+                mIds.add(id);
+                if (mIds.size() > MAX_ROW_URIS) {
+                    addTable();
+                }
+            }
+        }
+
+        void addTable() {
+            mTable = true;
+            mIds.clear();
+        }
+
+        void addAll(Changes changes) {
+            if (changes.mTable) {
+                addTable();
+            } else {
+                for (Long id : changes.mIds) {
+                    addRow(id);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return !mTable && mIds.isEmpty();
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    /** Changes waiting to be sent, guarded by this */
+    private Changes mPending = new Changes();
+    private boolean mScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    PetChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+        HandlerThread thread = new HandlerThread("PetChangeNotifier");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * A single pet was inserted, updated or deleted
+     */
+    synchronized void rowChanged(long id) {
+        mPending.addRow(id);
+        schedule();
+    }
+
+    /**
+     * Any number of pets may have changed
+     */
+    synchronized void tableChanged() {
+        mPending.addTable();
+        schedule();
+    }
+
+    /**
+     * Send the changes of a committed transaction, together with anything already waiting
+     */
+    void sendNow(Changes changes) {
+        synchronized (this) {
+            mPending.addAll(changes);
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        flush();
+    }
+
+    private void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, WINDOW_MS);
+        }
+    }
+
+    /**
+     * Send every change collected so far
+     */
+    void flush() {
+        Changes changes;
+        synchronized (this) {
+            changes = mPending;
+            mPending = new Changes();
+            mScheduled = false;
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (changes.mTable || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            // Reaches the list, the summaries and every row observer, once each. Before N a
+            // list change can't skip row observers, so row URIs would only add duplicate
+            // wake-ups.
+            mResolver.notifyChange(PetEntry.CONTENT_URI, null);
+            return;
+        }
+        for (Long id : changes.mIds) {
+            mResolver.notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null);
+        }
+        notifyListOnly();
+        for (Uri uri : SUMMARY_URIS) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void notifyListOnly() {
+        mResolver.notifyChange(PetEntry.CONTENT_URI, null,
+                ContentResolver.NOTIFY_SKIP_NOTIFY_FOR_DESCENDANTS);
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -24,6 +25,109 @@ public final class PetContract {
      * Path appended to base Content URI for possible URIs ie. content://package/pets
      */
     public static final String PATH_PETS = "pets";
+    /**
+     * Path appended to the pets URI for full-text search ie. content://package/pets/search/tob
+     */
+    public static final String PATH_SEARCH = "search";
+    /**
+     * Path appended to the pets URI to read every pet as a file ie. content://package/pets/export
+     */
+    public static final String PATH_EXPORT = "export";
+    /**
+     * Path appended to the pets URI to write pets from a file ie. content://package/pets/import
+     */
+    public static final String PATH_IMPORT = "import";
+    /**
+     * Path appended to the pets URI for summary figures ie. content://package/pets/stats
+     */
+    public static final String PATH_STATS = "stats";
+    /**
+     * Path appended to the stats URI for figures per breed ie. content://package/pets/stats/breed
+     */
+    public static final String PATH_STATS_BREED = "breed";
+    /**
+     * Path appended to the pets URI for provider timings ie. content://package/pets/_metrics
+     */
+    public static final String PATH_METRICS = "_metrics";
+    /**
+     * Path appended to the pets URI for queries over budget ie. content://package/pets/_slow_queries
+     */
+    public static final String PATH_SLOW_QUERIES = "_slow_queries";
+    /**
+     * Path appended to base Content URI for the shelter network ie. content://package/shelters/3/pets
+     */
+    public static final String PATH_SHELTERS = "shelters";
+    /**
+     * Path appended to the pets URI for the change feed ie. content://package/pets/changes?since=42
+     */
+    public static final String PATH_CHANGES = "changes";
+    /**
+     * Path appended to a pet URI for its photo file ie. content://package/pets/7/photo
+     */
+    public static final String PATH_PHOTO = "photo";
+    /**
+     * Provider method shrinking the change feed, returns {@link #KEY_CHANGES_REMOVED}
+     */
+    public static final String METHOD_COMPACT_CHANGES = "compact_changes";
+    /**
+     * Key of the Bundle returned by {@link #METHOD_COMPACT_CHANGES}, the number of changes
+     * dropped as an int
+     */
+    public static final String KEY_CHANGES_REMOVED = "changes_removed";
+    /**
+     * Provider method rebuilding a database file created before incremental vacuum was turned
+     * on, so {@link #METHOD_RECLAIM_SPACE} can work on it. Rewrites the whole file the first
+     * time, does nothing after that.
+     */
+    public static final String METHOD_ENABLE_INCREMENTAL_VACUUM = "enable_incremental_vacuum";
+    /**
+     * Provider method returning up to arg unused pages of the database file to the file
+     * system, returns {@link #KEY_FREE_PAGES}. Holds the write lock only for that many pages.
+     */
+    public static final String METHOD_RECLAIM_SPACE = "reclaim_space";
+    /**
+     * Key of the Bundle returned by {@link #METHOD_RECLAIM_SPACE}, the number of unused pages
+     * still in the file as an int
+     */
+    public static final String KEY_FREE_PAGES = "free_pages";
+    /**
+     * Provider method deleting photo files no pet refers to anymore, returns
+     * {@link #KEY_PHOTOS_REMOVED}
+     */
+    public static final String METHOD_DELETE_UNUSED_PHOTOS = "delete_unused_photos";
+    /**
+     * Key of the Bundle returned by {@link #METHOD_DELETE_UNUSED_PHOTOS}, the number of files
+     * deleted as an int
+     */
+    public static final String KEY_PHOTOS_REMOVED = "photos_removed";
+    /**
+     * Provider method refreshing the statistics the query planner picks indexes with
+     */
+    public static final String METHOD_OPTIMIZE = "optimize";
+    /**
+     * Provider method setting the slow query budget, the arg is the number of ms
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+    /**
+     * Provider method writing every held write-behind update now
+     */
+    public static final String METHOD_FLUSH_WRITES = "flush_writes";
+    /**
+     * Provider method setting how long write-behind updates may be held, the arg is the
+     * number of ms. That is how much is lost if the process dies. 0 writes them at once.
+     */
+    public static final String METHOD_SET_WRITE_BEHIND_DELAY = "set_write_behind_delay";
+    /**
+     * Provider method returning the single-pet cache counters, use with ContentResolver.call
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+    /**
+     * Keys of the Bundle returned by {@link #METHOD_GET_CACHE_STATS}, all int values
+     */
+    public static final String KEY_CACHE_HITS = "hits";
+    public static final String KEY_CACHE_MISSES = "misses";
+    public static final String KEY_CACHE_EVICTIONS = "evictions";
+    public static final String KEY_CACHE_SIZE = "size";
     /**
      * Inner class for constant values for pets db table
      */
@@ -32,6 +136,16 @@ public final class PetContract {
          * Content URI to access pet data in the provider
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+        /**
+         * Content URI for one row of figures over every pet: {@link #COLUMN_PET_COUNT},
+         * {@link #COLUMN_AVERAGE_WEIGHT} and a count per gender
+         */
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+        /**
+         * Content URI for a row per breed: {@link #COLUMN_PET_BREED} (empty for pets without
+         * one), {@link #COLUMN_PET_COUNT} and {@link #COLUMN_AVERAGE_WEIGHT}, largest breeds first
+         */
+        public static final Uri BREED_STATS_URI = Uri.withAppendedPath(STATS_URI, PATH_STATS_BREED);
         /**
          * MIME type CONTENT_URI for a list of pets
          */
@@ -42,10 +156,185 @@ public final class PetContract {
          */
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE+"/"+CONTENT_AUTHORITY+"/"+PATH_PETS;
+        /**
+         * MIME type of STATS_URI, a single row of figures
+         */
+        public static final String STATS_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE+"/"+CONTENT_AUTHORITY+"/"+PATH_PETS+"."+PATH_STATS;
+        /**
+         * MIME type of BREED_STATS_URI, a row of figures per breed
+         */
+        public static final String BREED_STATS_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE+"/"+CONTENT_AUTHORITY+"/"+PATH_PETS+"."+PATH_STATS;
+        /**
+         * Query parameter for keyset paging: only pets with an _id greater than this are returned
+         */
+        public static final String QUERY_PARAMETER_AFTER = "after";
+        /**
+         * Query parameter for keyset paging: maximum number of pets to return. On a delete of
+         * CONTENT_URI, at most this many pets are deleted, lowest _id first.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        /**
+         * Query parameter for keyset paging of a sorted catalog: the sort column value of the last
+         * pet on the previous page, absent if it was null. Used together with the after _id.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+        /**
+         * Query parameter for paged queries: column to sort by, then by _id. Only these values
+         * are accepted, without it pets are ordered by _id ie. the order they were added.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String SORT_NAME = "name";
+        public static final String SORT_BREED = "breed";
+        public static final String SORT_WEIGHT = "weight";
+        /**
+         * Query parameters for paged queries: only pets of this gender, at least or at most this
+         * weight, or of exactly this breed
+         */
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+        public static final String QUERY_PARAMETER_BREED = "breed";
+        /**
+         * Build the URI for one page of pets ordered by _id ie. content://package/pets?after=42&limit=50
+         *
+         * @param afterId _id of the last pet on the previous page, or -1 for the first page
+         * @param limit   maximum number of pets on the page
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return buildPageUri(CONTENT_URI, null, afterId, limit);
+        }
+        /**
+         * Build the URI for one page of a sorted or filtered catalog
+         *
+         * @param catalogUri URI from {@link #buildCatalogUri}
+         * @param afterKey   sort column value of the last pet on the previous page, null if the
+         *                   catalog isn't sorted or the value was null
+         * @param afterId    _id of the last pet on the previous page, or -1 for the first page
+         * @param limit      maximum number of pets on the page
+         */
+        public static Uri buildPageUri(Uri catalogUri, String afterKey, long afterId, int limit) {
+            Uri.Builder builder = catalogUri.buildUpon();
+            if (afterId >= 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId));
+                if (afterKey != null) {
+                    builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey);
+                }
+            }
+            return builder.appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+        /**
+         * Build the URI to delete the next chunk of pets matching a selection, so a large
+         * delete can be split into short transactions ie. content://package/pets?limit=500
+         *
+         * @param limit maximum number of pets deleted
+         */
+        public static Uri buildDeleteChunkUri(int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+        /**
+         * Build the URI for a sorted and filtered catalog, to page through with
+         * {@link #buildPageUri(Uri, String, long, int)}. Null arguments leave that option out.
+         *
+         * @param sort one of the SORT_ values, or null to order by _id
+         */
+        public static Uri buildCatalogUri(String sort, Integer gender, Integer minWeight,
+                                          Integer maxWeight, String breed) {
+            Uri.Builder builder = CONTENT_URI.buildUpon();
+            if (sort != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+            }
+            if (gender != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GENDER, String.valueOf(gender));
+            }
+            if (minWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT, String.valueOf(minWeight));
+            }
+            if (maxWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT, String.valueOf(maxWeight));
+            }
+            if (breed != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_BREED, breed);
+            }
+            return builder.build();
+        }
+        /**
+         * Build the URI searching pet names and breeds for words starting with the terms in query
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+        /**
+         * Query parameter for updates to a single pet: when true the update is held in memory,
+         * merged with other updates to the pet, and written in one transaction with other held
+         * updates shortly after. Queries of the pet see it at once, the pets list after the write.
+         */
+        public static final String QUERY_PARAMETER_WRITE_BEHIND = "write_behind";
+        /**
+         * Build the URI for write-behind updates to one pet ie. content://package/pets/7?write_behind=true
+         */
+        public static Uri buildWriteBehindUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_WRITE_BEHIND, "true").build();
+        }
+        /**
+         * Query parameter choosing the file format for export and import, csv if absent
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        /**
+         * File formats: CSV with a header row of column names, or a JSON array of objects
+         */
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_JSON = "json";
+        /**
+         * Build the URI to open for reading every pet ie. content://package/pets/export?format=json
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format).build();
+        }
+        /**
+         * MIME type of a pet photo, stored as JPEG
+         */
+        public static final String PHOTO_TYPE = "image/jpeg";
+        /**
+         * Build the URI of a pet's photo ie. content://package/pets/7/photo. Open it for
+         * reading to get the file, or for writing to replace it. The pet only changes once the
+         * new photo is completely written.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_PHOTO).build();
+        }
+        /**
+         * Build the URI to open for writing pets. Every pet written is inserted with a new _id.
+         * From KitKat an import that fails, on bad input or a pet that can't be inserted,
+         * closes the pipe with an error, see {@link android.os.ParcelFileDescriptor#checkError}.
+         */
+        public static Uri buildImportUri(String format) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_IMPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format).build();
+        }
         /**
          * DB table name
          */
         public static final String TABLE_NAME = "pets";
+        /**
+         * Full-text index over name and breed, kept in sync with the pets table by triggers
+         */
+        public static final String SEARCH_TABLE_NAME = "pets_search";
+        /**
+         * Running count and total weight of pets per gender, kept up to date by triggers
+         */
+        public static final String GENDER_STATS_TABLE_NAME = "pets_gender_stats";
+        /**
+         * Running count and total weight of pets per breed, kept up to date by triggers
+         */
+        public static final String BREED_STATS_TABLE_NAME = "pets_breed_stats";
         /**
          * Unique primary ID Type:INTEGER
          */
@@ -72,6 +361,240 @@ public final class PetContract {
          * Pet weight Type:INTEGER
          */
         public static final String COLUMN_PET_WEIGHT = "weight";
+        /**
+         * File name of the pet photo, null if it has none. Read only, the photo is set by
+         * writing to {@link #buildPhotoUri} Type:TEXT
+         */
+        public static final String COLUMN_PET_PHOTO = "photo";
+        /**
+         * Stats columns: number of pets Type:INTEGER
+         */
+        public static final String COLUMN_PET_COUNT = "pet_count";
+        /**
+         * Stats columns: mean weight, 0 if there are no pets Type:REAL
+         */
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+        /**
+         * Stats columns: number of pets of each gender Type:INTEGER
+         */
+        public static final String COLUMN_MALE_COUNT = "male_count";
+        public static final String COLUMN_FEMALE_COUNT = "female_count";
+        public static final String COLUMN_UNKNOWN_GENDER_COUNT = "unknown_gender_count";
+
+    }
+
+    /**
+     * URIs for the shelter network. Each shelter's pets are kept in a database file of their
+     * own, with the same columns and URI parameters as {@link PetEntry}, so writes to
+     * different shelters never wait on each other. {@link PetEntry#CONTENT_URI} stays the
+     * device's own catalog and isn't part of the network.
+     */
+    public static final class ShelterEntry {
+        /**
+         * Content URI of the shelter network, observe it to hear about every shelter
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SHELTERS);
+        /**
+         * Content URI for the pets of every shelter, query only. Each shelter is queried in
+         * parallel and the pages are merged, so {@link PetEntry#QUERY_PARAMETER_LIMIT} is
+         * required and {@link PetEntry#QUERY_PARAMETER_AFTER} isn't supported.
+         */
+        public static final Uri ALL_PETS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_PETS);
+        /**
+         * Shelter a pet belongs to, only in rows of ALL_PETS_URI Type:INTEGER
+         */
+        public static final String COLUMN_SHELTER_ID = "shelter_id";
+
+        /**
+         * Build the URI for the pets of one shelter ie. content://package/shelters/3/pets
+         */
+        public static Uri buildPetsUri(long shelterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(shelterId))
+                    .appendPath(PATH_PETS)
+                    .build();
+        }
+    }
+
+    /**
+     * Columns of the change feed, a row per write to the pets table in the order they
+     * committed. A consumer keeps the highest {@link #COLUMN_SEQUENCE} it has seen and asks
+     * for the changes since then with {@link #buildChangesUri}.
+     * <p>
+     * The feed is compacted to the latest change of each pet, so an insert or update means
+     * "read this pet again" rather than the exact edit. Once the oldest changes are truncated
+     * a consumer too far behind gets a single {@link #OPERATION_RESET} row instead.
+     */
+    public static final class ChangeEntry {
+        /**
+         * Content URI to read the feed, query only
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+        /**
+         * MIME type of CONTENT_URI
+         */
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE+"/"+CONTENT_AUTHORITY+"/"+PATH_PETS+"."+PATH_CHANGES;
+        /**
+         * Query parameter: only changes with a higher sequence number are returned, 0 for all
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+        /**
+         * Query parameter: maximum number of changes to return, optional
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        /**
+         * Name of the change log table, written by triggers on the pets table
+         */
+        public static final String TABLE_NAME = "pet_changes";
+        /**
+         * Name of the one-row table holding the sequence number the log is truncated up to
+         */
+        public static final String TRUNCATED_TABLE_NAME = "pet_changes_truncated";
+        /**
+         * Sequence number, increasing with every change and never reused Type:INTEGER
+         */
+        public static final String COLUMN_SEQUENCE = "seq";
+        /**
+         * _id of the pet changed, null for {@link #OPERATION_RESET} Type:INTEGER
+         */
+        public static final String COLUMN_PET_ID = "pet_id";
+        /**
+         * One of the OPERATION_ values Type:TEXT
+         */
+        public static final String COLUMN_OPERATION = "operation";
+        /**
+         * Every change column, in cursor order
+         */
+        public static final String[] COLUMNS = {COLUMN_SEQUENCE, COLUMN_PET_ID, COLUMN_OPERATION};
+        /**
+         * Possible values of the operation column
+         */
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+        /**
+         * The changes asked for were truncated. Read every pet again, then continue from the
+         * sequence number of this row.
+         */
+        public static final String OPERATION_RESET = "reset";
+
+        /**
+         * Build the URI for the changes after a sequence number
+         * ie. content://package/pets/changes?since=42&limit=100
+         *
+         * @param since highest sequence number already seen, 0 for the whole feed
+         * @param limit maximum number of changes, or 0 for no limit
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since));
+            if (limit > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            }
+            return builder.build();
+        }
+    }
 
+    /**
+     * Columns of the provider metrics, a row per operation and URI match since the provider
+     * started. Times are in ms.
+     */
+    public static final class MetricsEntry {
+        /**
+         * Content URI to read the metrics, query only
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_METRICS);
+        /**
+         * MIME type of CONTENT_URI
+         */
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE+"/"+CONTENT_AUTHORITY+"/"+PATH_PETS+"."+PATH_METRICS;
+        /**
+         * Operation ie. query, insert, bulk_insert, update, delete, apply_batch Type:TEXT
+         */
+        public static final String COLUMN_OPERATION = "operation";
+        /**
+         * URI match the operation was made on ie. PETS, PET_ID Type:TEXT
+         */
+        public static final String COLUMN_URI = "uri";
+        /**
+         * Number of calls, failed ones included Type:INTEGER
+         */
+        public static final String COLUMN_COUNT = "count";
+        /**
+         * Rows returned by queries, or affected by writes Type:INTEGER
+         */
+        public static final String COLUMN_ROWS = "rows";
+        /**
+         * Total and slowest call time Type:INTEGER
+         */
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+        public static final String COLUMN_MAX_MS = "max_ms";
+        /**
+         * Total time writes waited for the database write lock Type:INTEGER
+         */
+        public static final String COLUMN_LOCK_WAIT_MS = "lock_wait_ms";
+        /**
+         * Latency percentiles, as the upper bound of the histogram bucket they fall in Type:INTEGER
+         */
+        public static final String COLUMN_P50_MS = "p50_ms";
+        public static final String COLUMN_P90_MS = "p90_ms";
+        public static final String COLUMN_P99_MS = "p99_ms";
+        /**
+         * Comma separated call counts for latencies under 1, 2, 4, ... 1024 ms and over Type:TEXT
+         */
+        public static final String COLUMN_HISTOGRAM = "histogram";
+        /**
+         * Every metrics column, in cursor order
+         */
+        public static final String[] COLUMNS = {COLUMN_OPERATION, COLUMN_URI, COLUMN_COUNT,
+                COLUMN_ROWS, COLUMN_TOTAL_MS, COLUMN_MAX_MS, COLUMN_LOCK_WAIT_MS, COLUMN_P50_MS,
+                COLUMN_P90_MS, COLUMN_P99_MS, COLUMN_HISTOGRAM};
+    }
+
+    /**
+     * Columns of the slow query log, a row per recent provider query over the time budget,
+     * oldest first. Also printed by dumpsys for the provider.
+     */
+    public static final class SlowQueryEntry {
+        /**
+         * Content URI to read the log, query only
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_SLOW_QUERIES);
+        /**
+         * MIME type of CONTENT_URI
+         */
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE+"/"+CONTENT_AUTHORITY+"/"+PATH_PETS+"."+PATH_SLOW_QUERIES;
+        /**
+         * When the query finished, ms since the epoch Type:INTEGER
+         */
+        public static final String COLUMN_TIME = "time";
+        /**
+         * URI match the query was made on ie. PETS Type:TEXT
+         */
+        public static final String COLUMN_URI = "uri";
+        /**
+         * How long the query took Type:INTEGER
+         */
+        public static final String COLUMN_DURATION_MS = "duration_ms";
+        /**
+         * SQL that ran Type:TEXT
+         */
+        public static final String COLUMN_SQL = "sql";
+        /**
+         * Types of the caller's selection arguments ie. "number, text", values aren't kept Type:TEXT
+         */
+        public static final String COLUMN_ARGUMENTS = "arguments";
+        /**
+         * EXPLAIN QUERY PLAN details joined with "; " Type:TEXT
+         */
+        public static final String COLUMN_PLAN = "plan";
+        /**
+         * Every slow query column, in cursor order
+         */
+        public static final String[] COLUMNS = {COLUMN_TIME, COLUMN_URI, COLUMN_DURATION_MS,
+                COLUMN_SQL, COLUMN_ARGUMENTS, COLUMN_PLAN};
     }
 }
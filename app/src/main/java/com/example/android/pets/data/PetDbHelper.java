@@ -1,8 +1,11 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import com.example.android.pets.data.PetContract.ChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry ;
 
 
@@ -17,21 +20,193 @@ import com.example.android.pets.data.PetContract.PetEntry ;
 public class PetDbHelper extends SQLiteOpenHelper {
     public static final String LOG_TAG = PetDbHelper.class.getSimpleName();
 
+    /** Value of PRAGMA auto_vacuum once free pages are only released by incremental_vacuum */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
     /** Name of the database file */
     private static final String DATABASE_NAME = "shelter.db";
 
     /**
-     * Database version. If you change the database schema, must increment database version.
+     * Database version. If you change the database schema, must increment database version
+     * and add a {@link Migration} for it to {@link #MIGRATIONS}.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
 
     /**
-     * Constructs a new instance of {@link PetDbHelper}.
+     * One step of the schema history, moving the database from the previous version to
+     * {@link #version}. Each step runs in its own transaction.
+     */
+    abstract static class Migration {
+        /** Schema version the database is at once this step has run */
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Every schema change after version 1, in order. New databases run them all after
+     * creating the version 1 table, so both paths end up with the same schema.
+     */
+    static final Migration[] MIGRATIONS = {
+            // Full-text index over name and breed
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSearchTable(db);
+                    // Index the pets already in the table
+                    db.execSQL("INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + "("
+                            + PetEntry.SEARCH_TABLE_NAME + ") VALUES('rebuild')");
+                }
+            },
+            // Indexes for sorting and filtering the catalog
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // NOCASE so ORDER BY name COLLATE NOCASE reads the index in order
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_name_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE)");
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_breed_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ")");
+                    // Gender first so an equality filter on gender can range scan weight
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_gender_weight_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_WEIGHT + ")");
+                }
+            },
+            // Running totals for the stats URIs
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createStatsTables(db);
+                    // Count the pets already in the table
+                    db.execSQL("INSERT INTO " + PetEntry.GENDER_STATS_TABLE_NAME + " SELECT "
+                            + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), SUM(" + PetEntry.COLUMN_PET_WEIGHT
+                            + ") FROM " + PetEntry.TABLE_NAME + " GROUP BY " + PetEntry.COLUMN_PET_GENDER);
+                    db.execSQL("INSERT INTO " + PetEntry.BREED_STATS_TABLE_NAME + " SELECT IFNULL("
+                            + PetEntry.COLUMN_PET_BREED + ", ''), COUNT(*), SUM(" + PetEntry.COLUMN_PET_WEIGHT
+                            + ") FROM " + PetEntry.TABLE_NAME + " GROUP BY IFNULL("
+                            + PetEntry.COLUMN_PET_BREED + ", '')");
+                }
+            },
+            // Sorting the whole catalog by weight, the gender index only helps with a gender filter
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_weight_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_WEIGHT + ")");
+                }
+            },
+            // Change feed
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createChangeLog(db);
+                    // Log the pets already in the table, so reading the feed from 0 sees them
+                    db.execSQL("INSERT INTO " + ChangeEntry.TABLE_NAME + "("
+                            + ChangeEntry.COLUMN_PET_ID + ", " + ChangeEntry.COLUMN_OPERATION
+                            + ") SELECT " + PetEntry._ID + ", '" + ChangeEntry.OPERATION_INSERT
+                            + "' FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetEntry._ID);
+                }
+            },
+            // Photos, the table only holds the file name
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_PHOTO + " TEXT");
+                }
+            },
+    };
+
+    /**
+     * Connection settings applied every time the database is opened.
+     * Both presets use write-ahead logging so readers never wait on the writer.
+     */
+    public static final class Profile {
+        /** Sync the log on every commit, a commit survives power loss */
+        public static final Profile DURABLE = new Profile(4096, 2000, "FULL", 0);
+        /**
+         * Sync only at checkpoints. The last commits may be lost on power loss
+         * but the database can't be corrupted.
+         */
+        public static final Profile THROUGHPUT = new Profile(4096, 8000, "NORMAL", 64L * 1024 * 1024);
+
+        /** Page size in bytes, only takes effect when the database file is created */
+        final int pageSize;
+        /** Page cache size of the primary connection in KiB, pool readers keep the default */
+        final int cacheSizeKb;
+        /** Value for PRAGMA synchronous */
+        final String synchronous;
+        /** Bytes of the file the primary connection memory maps, 0 disables it */
+        final long mmapSize;
+
+        public Profile(int pageSize, int cacheSizeKb, String synchronous, long mmapSize) {
+            this.pageSize = pageSize;
+            this.cacheSizeKb = cacheSizeKb;
+            this.synchronous = synchronous;
+            this.mmapSize = mmapSize;
+        }
+    }
+
+    /** Settings applied in {@link #onConfigure(SQLiteDatabase)} */
+    private final Profile mProfile;
+
+    /** Precompiled statements for the current writable database, created on first use */
+    private PetStatements mStatements;
+
+    /**
+     * Constructs a new instance of {@link PetDbHelper} with the {@link Profile#THROUGHPUT} profile.
      *
      * @param context of the app
      */
     public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, Profile.THROUGHPUT);
+    }
+
+    /**
+     * Constructs a new instance of {@link PetDbHelper}.
+     *
+     * @param context of the app
+     * @param profile connection settings to open the database with
+     */
+    public PetDbHelper(Context context, Profile profile) {
+        this(context, DATABASE_NAME, profile);
+    }
+
+    /**
+     * Constructs a new instance of {@link PetDbHelper} for a database file of its own,
+     * ie. one shelter of the network.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     * @param profile connection settings to open the database with
+     */
+    public PetDbHelper(Context context, String name, Profile profile) {
+        // The cursor factory lets the slow query log see the SQL of every query
+        super(context, name, PetSlowQueryLog.CURSOR_FACTORY, DATABASE_VERSION);
+        mProfile = profile;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // page_size has to be set before WAL is turned on, after that it can't change
+        pragma(db, "page_size = " + mProfile.pageSize);
+        // Like page_size this only takes effect on a new file, see enableIncrementalVacuum
+        // for old ones
+        pragma(db, "auto_vacuum = INCREMENTAL");
+        db.enableWriteAheadLogging();
+        // Pragmas below only reach the primary connection, which runs every write.
+        // SQLiteDatabase has no hook for the read-only pool connections it opens later,
+        // so those keep SQLite's default cache_size and mmap_size. synchronous only
+        // matters for writes anyway.
+        pragma(db, "synchronous = " + mProfile.synchronous);
+        pragma(db, "cache_size = -" + mProfile.cacheSizeKb);
+        pragma(db, "temp_store = MEMORY");
+        pragma(db, "mmap_size = " + mProfile.mmapSize);
     }
 
     @Override
@@ -46,10 +221,222 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
         //Execute the SQL statement
         db.execSQL(SQL_CREATE_PETS_TABLE);
+        //Bring the version 1 table up to the current schema
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // to do
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run every migration after oldVersion up to and including newVersion, in order.
+     * SQLiteOpenHelper already wraps this in a transaction, so a failing step rolls back
+     * the whole upgrade and the database stays at oldVersion.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Create the full-text index over pet name and breed. It reads its content from the pets
+     * table, so only the index is stored, and triggers keep it in step with every write.
+     */
+    private static void createSearchTable(SQLiteDatabase db) {
+        String search = PetEntry.SEARCH_TABLE_NAME;
+        String columns = PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED;
+        String newValues = "new." + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME
+                + ", new." + PetEntry.COLUMN_PET_BREED;
+        String deleteOld = "DELETE FROM " + search + " WHERE docid = old." + PetEntry._ID + "; END";
+        String insertNew = "INSERT INTO " + search + "(docid, " + columns + ") VALUES("
+                + newValues + "); END";
+
+        db.execSQL("CREATE VIRTUAL TABLE " + search + " USING fts4(content=\""
+                + PetEntry.TABLE_NAME + "\", " + columns + ")");
+        // Only name and breed are indexed, so weight and gender edits skip the index
+        db.execSQL("CREATE TRIGGER " + search + "_before_update BEFORE UPDATE OF " + columns
+                + " ON " + PetEntry.TABLE_NAME + " BEGIN " + deleteOld);
+        db.execSQL("CREATE TRIGGER " + search + "_after_update AFTER UPDATE OF " + columns
+                + " ON " + PetEntry.TABLE_NAME + " BEGIN " + insertNew);
+        db.execSQL("CREATE TRIGGER " + search + "_before_delete BEFORE DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + deleteOld);
+        db.execSQL("CREATE TRIGGER " + search + "_after_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + insertNew);
+    }
+
+    /**
+     * Create the per-gender and per-breed totals. Triggers move each pet's count and weight
+     * between rows as pets are written, so the stats URIs read a handful of rows instead of
+     * scanning the pets table. Rows whose count drops to 0 are kept and filtered out on read.
+     */
+    private static void createStatsTables(SQLiteDatabase db) {
+        String genders = PetEntry.GENDER_STATS_TABLE_NAME;
+        String breeds = PetEntry.BREED_STATS_TABLE_NAME;
+        String totals = PetEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL, total_weight INTEGER NOT NULL)";
+        db.execSQL("CREATE TABLE " + genders + " (" + PetEntry.COLUMN_PET_GENDER
+                + " INTEGER PRIMARY KEY, " + totals);
+        // A missing breed is counted under ''
+        db.execSQL("CREATE TABLE " + breeds + " (" + PetEntry.COLUMN_PET_BREED
+                + " TEXT PRIMARY KEY NOT NULL, " + totals);
+
+        String addNew = changeStats("new", "+");
+        String removeOld = changeStats("old", "-");
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_after_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + addNew + " END");
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_after_delete AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + removeOld + " END");
+        // Name edits don't change any total, so they skip the trigger
+        db.execSQL("CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_after_update AFTER UPDATE OF "
+                + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                + removeOld + addNew + " END");
+    }
+
+    /**
+     * Return trigger statements adding (sign "+") or removing (sign "-") the new or old
+     * row of the pets table to the stats tables
+     */
+    private static String changeStats(String row, String sign) {
+        String weight = row + "." + PetEntry.COLUMN_PET_WEIGHT;
+        return changeTotals(PetEntry.GENDER_STATS_TABLE_NAME, PetEntry.COLUMN_PET_GENDER,
+                row + "." + PetEntry.COLUMN_PET_GENDER, sign, weight)
+                + changeTotals(PetEntry.BREED_STATS_TABLE_NAME, PetEntry.COLUMN_PET_BREED,
+                "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", '')", sign, weight);
+    }
+
+    /**
+     * Return trigger statements changing one stats row by a pet, creating the row if needed
+     */
+    private static String changeTotals(String table, String keyColumn, String key, String sign,
+                                       String weight) {
+        return "INSERT OR IGNORE INTO " + table + " VALUES(" + key + ", 0, 0); "
+                + "UPDATE " + table + " SET " + PetEntry.COLUMN_PET_COUNT + " = "
+                + PetEntry.COLUMN_PET_COUNT + " " + sign + " 1, total_weight = total_weight "
+                + sign + " " + weight + " WHERE " + keyColumn + " = " + key + "; ";
+    }
+
+    /**
+     * Create the change log. Triggers add a row for every pet written, inside the statement
+     * that wrote it, so a change is logged exactly when its write commits. AUTOINCREMENT means
+     * a sequence number is never handed out twice, whatever is dropped from the log.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        String changes = ChangeEntry.TABLE_NAME;
+        db.execSQL("CREATE TABLE " + changes + " ("
+                + ChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                + ChangeEntry.COLUMN_OPERATION + " TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE " + ChangeEntry.TRUNCATED_TABLE_NAME + " ("
+                + ChangeEntry.COLUMN_SEQUENCE + " INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO " + ChangeEntry.TRUNCATED_TABLE_NAME + " VALUES(0)");
+
+        db.execSQL("CREATE TRIGGER " + changes + "_after_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + logChange("new", ChangeEntry.OPERATION_INSERT));
+        db.execSQL("CREATE TRIGGER " + changes + "_after_update AFTER UPDATE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + logChange("new", ChangeEntry.OPERATION_UPDATE));
+        db.execSQL("CREATE TRIGGER " + changes + "_after_delete AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + logChange("old", ChangeEntry.OPERATION_DELETE));
+    }
+
+    /**
+     * Return the end of a trigger adding the new or old row of the pets table to the change log
+     */
+    private static String logChange(String row, String operation) {
+        return "INSERT INTO " + ChangeEntry.TABLE_NAME + "(" + ChangeEntry.COLUMN_PET_ID + ", "
+                + ChangeEntry.COLUMN_OPERATION + ") VALUES(" + row + "." + PetEntry._ID + ", '"
+                + operation + "'); END";
+    }
+
+    /**
+     * Return the precompiled statements for the writable database, compiling them again
+     * if the database was reopened since they were last used
+     */
+    synchronized PetStatements getStatements() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (mStatements == null || !mStatements.isFor(db)) {
+            if (mStatements != null) {
+                mStatements.close();
+            }
+            mStatements = new PetStatements(db);
+        }
+        return mStatements;
+    }
+
+    /**
+     * Rebuild a file created before incremental vacuum was turned on, once. VACUUM rewrites
+     * the whole file while holding the write lock, so this is left to the idle maintenance
+     * rather than run on open, and every later call only reads the pragma.
+     *
+     * @return true if the file was rebuilt
+     */
+    boolean enableIncrementalVacuum() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (isIncremental(db)) {
+            return false;
+        }
+        // onConfigure already asked for incremental, VACUUM makes it stick
+        db.execSQL("VACUUM");
+        return true;
+    }
+
+    /**
+     * Return up to pages unused pages at the end of the file to the file system. Each call is
+     * one short write, so it can run in steps between other writes. Does nothing until
+     * {@link #enableIncrementalVacuum} has run on an old file.
+     *
+     * @return number of unused pages still in the file
+     */
+    int reclaimSpace(int pages) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (isIncremental(db)) {
+            pragma(db, "incremental_vacuum(" + pages + ")");
+        }
+        return (int) DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    private static boolean isIncremental(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * Let SQLite refresh the statistics its query planner uses, on versions that support it.
+     * Older versions ignore the unknown pragma.
+     */
+    void optimize() {
+        pragma(getWritableDatabase(), "optimize");
+    }
+
+    /**
+     * Run a PRAGMA. Some pragmas return a row even when setting a value, which execSQL
+     * rejects, so they go through rawQuery instead
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mStatements != null) {
+            mStatements.close();
+            mStatements = null;
+        }
+        super.close();
     }
 }
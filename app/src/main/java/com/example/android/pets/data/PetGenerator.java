@@ -0,0 +1,117 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * Generates pets for load testing and demo data. The same seed always gives the same pets
+ * in the same order, so runs against different builds insert identical data.
+ * Names and breeds are skewed like a real shelter: a few are very common and most are rare.
+ */
+public final class PetGenerator {
+    /**
+     * Seed used when none is given
+     */
+    public static final long DEFAULT_SEED = 42;
+
+    private static final String[] NAMES = {
+            "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Buddy", "Milo", "Bailey",
+            "Lola", "Rocky", "Sadie", "Bear", "Molly", "Duke", "Stella", "Tucker", "Maggie", "Oliver",
+            "Chloe", "Jack", "Sophie", "Teddy", "Penny", "Leo", "Zoey", "Toby", "Coco", "Winston",
+            "Ruby", "Oscar", "Rosie", "Bentley", "Gracie", "Jasper", "Nala", "Murphy", "Pepper", "Zeus",
+            "Willow", "Louie", "Roxy", "Bruno", "Lily", "Gus", "Ginger", "Loki", "Hazel", "Toto"};
+
+    /**
+     * Breeds with their share of the shelter in percent and typical weight range in kg.
+     * Shares add up to 100.
+     */
+    private static final String[] BREEDS = {
+            "Mixed", "Labrador Retriever", "Tabby", "German Shepherd", "Domestic Shorthair",
+            "Pit Bull Terrier", "Chihuahua", "Beagle", "Siamese", "Terrier", "Boxer",
+            "Golden Retriever", "Maine Coon", "Dachshund", "Husky", "Persian"};
+    private static final int[] BREED_SHARES = {
+            20, 12, 10, 8, 8, 7, 6, 5, 4, 4, 3, 3, 3, 3, 2, 2};
+    private static final int[] BREED_MIN_WEIGHTS = {
+            2, 25, 3, 22, 3, 14, 1, 9, 3, 5, 25, 25, 5, 7, 16, 3};
+    private static final int[] BREED_MAX_WEIGHTS = {
+            40, 36, 6, 40, 6, 30, 3, 12, 5, 12, 32, 34, 11, 14, 27, 6};
+    /**
+     * Percent of pets whose breed isn't recorded
+     */
+    private static final int UNKNOWN_BREED_PERCENT = 5;
+    /**
+     * Percent of pets whose gender isn't recorded, the rest are split evenly
+     */
+    private static final int UNKNOWN_GENDER_PERCENT = 10;
+
+    private final Random mRandom;
+
+    public PetGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    public PetGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Return the next count pets, ready for bulkInsert
+     */
+    public ContentValues[] next(int count) {
+        ContentValues[] pets = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            pets[i] = next();
+        }
+        return pets;
+    }
+
+    /**
+     * Return the next pet, with every column set
+     */
+    public ContentValues next() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, NAMES[skewedIndex(NAMES.length)]);
+
+        int breed = breedIndex();
+        int weight = BREED_MIN_WEIGHTS[breed]
+                + mRandom.nextInt(BREED_MAX_WEIGHTS[breed] - BREED_MIN_WEIGHTS[breed] + 1);
+        values.put(PetEntry.COLUMN_PET_BREED,
+                mRandom.nextInt(100) < UNKNOWN_BREED_PERCENT ? "" : BREEDS[breed]);
+
+        int gender;
+        if (mRandom.nextInt(100) < UNKNOWN_GENDER_PERCENT) {
+            gender = PetEntry.GENDER_UNKNOWN;
+        } else {
+            gender = mRandom.nextBoolean() ? PetEntry.GENDER_MALE : PetEntry.GENDER_FEMALE;
+        }
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    /**
+     * Pick a breed according to BREED_SHARES
+     */
+    private int breedIndex() {
+        int roll = mRandom.nextInt(100);
+        for (int i = 0; i < BREED_SHARES.length; i++) {
+            roll -= BREED_SHARES[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Pick an index below size where lower indexes are much more likely, roughly following
+     * the long tail of popular pet names
+     */
+    private int skewedIndex(int size) {
+        double r = mRandom.nextDouble();
+        return (int) (size * r * r * r);
+    }
+}
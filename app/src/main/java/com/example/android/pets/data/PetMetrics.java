@@ -0,0 +1,205 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Trace;
+
+import com.example.android.pets.data.PetContract.MetricsEntry;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts and times provider operations per operation and URI, and marks each one as a
+ * Trace section so it shows up in systrace. Time spent waiting for the database write lock
+ * is recorded separately, so lock contention can be told apart from slow SQL.
+ */
+final class PetMetrics {
+    static final String QUERY = "query";
+    static final String INSERT = "insert";
+    static final String BULK_INSERT = "bulk_insert";
+    static final String UPDATE = "update";
+    static final String DELETE = "delete";
+    static final String APPLY_BATCH = "apply_batch";
+    static final String FLUSH_WRITES = "flush_writes";
+
+    /**
+     * Upper bounds of the latency histogram buckets in ms, the last bucket has no bound
+     */
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    /**
+     * The operation running on this thread, innermost first
+     */
+    private static final ThreadLocal<Timer> sCurrent = new ThreadLocal<Timer>();
+
+    /**
+     * An operation on a URI, with the name its totals are kept under and its Trace section
+     * label. Made once per operation and URI, so starting a timer allocates only the timer.
+     */
+    static final class Key {
+        /** "operation uri" */
+        private final String mName;
+        private final String mLabel;
+
+        Key(String operation, String uri) {
+            mName = operation + " " + uri;
+            mLabel = "PetProvider." + mName;
+        }
+    }
+
+    /**
+     * One running operation, returned by {@link #start} and passed to {@link #stop}
+     */
+    static final class Timer {
+        private final Key mKey;
+        private final Timer mParent;
+        private final long mStartNanos;
+        private long mLockWaitNanos;
+
+        private Timer(Key key, Timer parent) {
+            mKey = key;
+            mParent = parent;
+            mStartNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Totals for one operation on one URI
+     */
+    private static final class Stat {
+        long count;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+        long lockWaitNanos;
+        final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+
+        void add(long nanos, long lockWaitNanos, int rows) {
+            count++;
+            this.rows += rows;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            this.lockWaitNanos += lockWaitNanos;
+            long ms = nanos / 1000000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && ms >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+        }
+
+        /**
+         * Return the upper bound in ms of the bucket holding the given percentile,
+         * or the max for the open-ended last bucket
+         */
+        long percentileMs(int percentile) {
+            long rank = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return BUCKET_BOUNDS_MS[i];
+                }
+            }
+            return maxNanos / 1000000;
+        }
+
+        String histogram() {
+            StringBuilder histogram = new StringBuilder();
+            for (int i = 0; i < buckets.length; i++) {
+                if (i > 0) {
+                    histogram.append(',');
+                }
+                histogram.append(buckets[i]);
+            }
+            return histogram.toString();
+        }
+    }
+
+    /** Totals by "operation uri", sorted so the cursor is stable. Guarded by this. */
+    private final TreeMap<String, Stat> mStats = new TreeMap<String, Stat>();
+
+    /**
+     * Start timing an operation on the calling thread
+     *
+     * @param key one of the operation constants with the name of the URI match, ie. PETS
+     */
+    Timer start(Key key) {
+        Timer timer = new Timer(key, sCurrent.get());
+        sCurrent.set(timer);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginSection(key.mLabel);
+        }
+        return timer;
+    }
+
+    /**
+     * Stop timing an operation, recording the rows it returned or affected
+     */
+    void stop(Timer timer, int rows) {
+        long nanos = System.nanoTime() - timer.mStartNanos;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endSection();
+        }
+        if (timer.mParent != null) {
+            // A batch waits for the lock whenever one of its operations does
+            timer.mParent.mLockWaitNanos += timer.mLockWaitNanos;
+            sCurrent.set(timer.mParent);
+        } else {
+            sCurrent.remove();
+        }
+        synchronized (this) {
+            Stat stat = mStats.get(timer.mKey.mName);
+            if (stat == null) {
+                stat = new Stat();
+                mStats.put(timer.mKey.mName, stat);
+            }
+            stat.add(nanos, timer.mLockWaitNanos, rows);
+        }
+    }
+
+    /**
+     * Begin a write transaction, adding the time spent waiting for the database write lock
+     * to the operation running on this thread
+     */
+    static void beginWrite(SQLiteDatabase database) {
+        long start = System.nanoTime();
+        database.beginTransactionNonExclusive();
+        Timer timer = sCurrent.get();
+        if (timer != null) {
+            timer.mLockWaitNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Return a row of {@link MetricsEntry} columns per operation and URI seen so far
+     */
+    synchronized Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(MetricsEntry.COLUMNS, mStats.size());
+        for (Map.Entry<String, Stat> entry : mStats.entrySet()) {
+            // Keys are "operation uri"
+            String key = entry.getKey();
+            Stat stat = entry.getValue();
+            int space = key.indexOf(' ');
+            cursor.addRow(new Object[]{key.substring(0, space), key.substring(space + 1),
+                    stat.count, stat.rows, stat.totalNanos / 1000000, stat.maxNanos / 1000000,
+                    stat.lockWaitNanos / 1000000, stat.percentileMs(50), stat.percentileMs(90),
+                    stat.percentileMs(99), stat.histogram()});
+        }
+        return cursor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection() {
+        Trace.endSection();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Photo files of the pets, in a directory of the app's private files. The pets table only
+ * holds the file name, so rows stay small and photo bytes never go through a cursor window.
+ * A file is never changed once written, a new photo gets a new name, so a reader of the old
+ * file is never affected and a name is safe to cache by.
+ */
+final class PetPhotos {
+    private static final String LOG_TAG = PetPhotos.class.getSimpleName();
+    private static final String DIRECTORY = "photos";
+    private static final String SUFFIX = ".jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Unreferenced files younger than this are kept, the pet may be about to refer to them
+     */
+    static final long UNUSED_MIN_AGE_MS = 60 * 60 * 1000;
+
+    private final File mDirectory;
+
+    PetPhotos(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    File file(String name) {
+        return new File(mDirectory, name);
+    }
+
+    /**
+     * Copy a photo into a new file, written under a temporary name and renamed once complete.
+     * Return the file name, or null if there were no bytes to write.
+     */
+    String write(long petId, InputStream in) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+        String name = petId + "_" + UUID.randomUUID() + SUFFIX;
+        File temp = file(name + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        long length = 0;
+        boolean complete = false;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                length += count;
+            }
+            out.getFD().sync();
+            complete = true;
+        } finally {
+            out.close();
+            if (!complete || length == 0) {
+                delete(temp);
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        if (!temp.renameTo(file(name))) {
+            delete(temp);
+            throw new IOException("Could not rename " + temp);
+        }
+        return name;
+    }
+
+    /**
+     * Delete a photo file, does nothing for null
+     */
+    void delete(String name) {
+        if (name != null) {
+            delete(file(name));
+        }
+    }
+
+    /**
+     * Delete every file not named in used and last modified before olderThan, which includes
+     * photos of deleted pets and writes that never completed
+     *
+     * @return number of files deleted
+     */
+    int deleteUnused(Set<String> used, long olderThan) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File file : files) {
+            if (!used.contains(file.getName()) && file.lastModified() < olderThan
+                    && delete(file)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static boolean delete(File file) {
+        if (!file.delete() && file.exists()) {
+            Log.w(LOG_TAG, "Could not delete " + file);
+            return false;
+        }
+        return true;
+    }
+}
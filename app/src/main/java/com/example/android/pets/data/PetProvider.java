@@ -1,16 +1,45 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCantOpenDatabaseException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteDiskIOException;
+import android.database.sqlite.SQLiteFullException;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.StrictMode;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -26,12 +55,57 @@ public class PetProvider extends ContentProvider {
      * URI matcher code for content URI for a single pet in the pets table
      */
     private static final int PET_ID = 101;
+    /**
+     * URI matcher code for content URI for a full-text search of pets
+     */
+    private static final int PET_SEARCH = 102;
+    /**
+     * URI matcher code for content URI for reading every pet as a file
+     */
+    private static final int PET_EXPORT = 103;
+    /**
+     * URI matcher code for content URI for writing pets from a file
+     */
+    private static final int PET_IMPORT = 104;
+    /**
+     * URI matcher code for content URI for figures over every pet
+     */
+    private static final int PET_STATS = 105;
+    /**
+     * URI matcher code for content URI for figures per breed
+     */
+    private static final int PET_BREED_STATS = 106;
+    /**
+     * URI matcher code for content URI for the provider's own timings
+     */
+    private static final int PET_METRICS = 107;
+    /**
+     * URI matcher code for content URI for the slow query log
+     */
+    private static final int PET_SLOW_QUERIES = 108;
+    /**
+     * URI matcher code for content URI for the change feed
+     */
+    private static final int PET_CHANGES = 109;
+    /**
+     * URI matcher codes for content URIs for the pets of one shelter, one pet of a shelter,
+     * and the pets of every shelter
+     */
+    private static final int SHELTER_PETS = 110;
+    private static final int SHELTER_PET_ID = 111;
+    private static final int ALL_SHELTER_PETS = 112;
+    /**
+     * URI matcher code for the photo file of one pet
+     */
+    private static final int PET_PHOTO = 113;
+    /** Highest URI matcher code, the codes run from PETS up to it */
+    private static final int LAST_MATCH = PET_PHOTO;
     /**
      * UriMatcher object to match a content URI to a corresponding code
      * Input passed into the constructor represents the code to return for the root URI
      * It's common to use NO_MATCH as the input for this case.
      */
-    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     //Static initializer. This is run the first time anything is called from this class.
     static {
@@ -39,50 +113,626 @@ public class PetProvider extends ContentProvider {
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         //Single row # placeholder for a number
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        //Search terms * placeholder for any text
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+        //Export and import files
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PET_EXPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_IMPORT, PET_IMPORT);
+        //Aggregates
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PET_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/"
+                + PetContract.PATH_STATS + "/" + PetContract.PATH_STATS_BREED, PET_BREED_STATS);
+        //Metrics
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_METRICS, PET_METRICS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SLOW_QUERIES, PET_SLOW_QUERIES);
+        //Change feed
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, PET_CHANGES);
+        //Shelter network, a database file per shelter
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/#/" + PetContract.PATH_PETS, SHELTER_PETS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/#/" + PetContract.PATH_PETS + "/#", SHELTER_PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/" + PetContract.PATH_PETS, ALL_SHELTER_PETS);
+        //Photo files
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+    }
+
+    /**
+     * Search joins the pets table with the full-text index, which has name and breed columns
+     * of its own, so every pet column is qualified with the pets table
+     */
+    private static final HashMap<String, String> sSearchProjectionMap = new HashMap<String, String>();
+
+    static {
+        for (String column : new String[]{PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO}) {
+            sSearchProjectionMap.put(column, PetEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Columns of the stats URIs, computed from the running totals kept by triggers
+     */
+    private static final String[] STATS_COLUMNS = {PetEntry.COLUMN_PET_COUNT,
+            PetEntry.COLUMN_AVERAGE_WEIGHT, PetEntry.COLUMN_MALE_COUNT,
+            PetEntry.COLUMN_FEMALE_COUNT, PetEntry.COLUMN_UNKNOWN_GENDER_COUNT};
+    private static final String[] BREED_STATS_COLUMNS = {PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_COUNT, PetEntry.COLUMN_AVERAGE_WEIGHT};
+    private static final HashMap<String, String> sStatsProjectionMap = new HashMap<String, String>();
+    private static final HashMap<String, String> sBreedStatsProjectionMap = new HashMap<String, String>();
+
+    static {
+        String count = PetEntry.COLUMN_PET_COUNT;
+        sStatsProjectionMap.put(count, "IFNULL(SUM(" + count + "), 0) AS " + count);
+        // Dividing by a NULL or 0 count gives NULL, ie. no pets
+        sStatsProjectionMap.put(PetEntry.COLUMN_AVERAGE_WEIGHT, "IFNULL(SUM(total_weight) * 1.0 / SUM("
+                + count + "), 0) AS " + PetEntry.COLUMN_AVERAGE_WEIGHT);
+        sStatsProjectionMap.put(PetEntry.COLUMN_MALE_COUNT,
+                genderCount(PetEntry.GENDER_MALE, PetEntry.COLUMN_MALE_COUNT));
+        sStatsProjectionMap.put(PetEntry.COLUMN_FEMALE_COUNT,
+                genderCount(PetEntry.GENDER_FEMALE, PetEntry.COLUMN_FEMALE_COUNT));
+        sStatsProjectionMap.put(PetEntry.COLUMN_UNKNOWN_GENDER_COUNT,
+                genderCount(PetEntry.GENDER_UNKNOWN, PetEntry.COLUMN_UNKNOWN_GENDER_COUNT));
+
+        sBreedStatsProjectionMap.put(PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_BREED);
+        sBreedStatsProjectionMap.put(count, count);
+        sBreedStatsProjectionMap.put(PetEntry.COLUMN_AVERAGE_WEIGHT, "total_weight * 1.0 / "
+                + count + " AS " + PetEntry.COLUMN_AVERAGE_WEIGHT);
     }
 
+    private static String genderCount(int gender, String alias) {
+        return "IFNULL(SUM(CASE " + PetEntry.COLUMN_PET_GENDER + " WHEN " + gender + " THEN "
+                + PetEntry.COLUMN_PET_COUNT + " END), 0) AS " + alias;
+    }
+
+    /**
+     * Selection for a single pet by ID, shared so the SQL text is the same on every call
+     */
+    private static final String SELECTION_ID = PetEntry._ID + "=?";
+    /**
+     * Number of pets kept in the single-pet cache
+     */
+    private static final int CACHE_SIZE = 256;
+    /**
+     * Name reported to StrictMode for writes, a thread with detectCustomSlowCalls set
+     * (ie. the main thread in WritesOffMainThreadTest) gets a violation for every write it makes
+     */
+    private static final String SLOW_CALL_WRITE = "PetProvider write";
+    /**
+     * Metrics keys of each operation by match code, see {@link #metricsKey}
+     */
+    private static final PetMetrics.Key[] QUERY_KEYS = metricsKeys(PetMetrics.QUERY);
+    private static final PetMetrics.Key[] INSERT_KEYS = metricsKeys(PetMetrics.INSERT);
+    private static final PetMetrics.Key[] BULK_INSERT_KEYS = metricsKeys(PetMetrics.BULK_INSERT);
+    private static final PetMetrics.Key[] UPDATE_KEYS = metricsKeys(PetMetrics.UPDATE);
+    private static final PetMetrics.Key[] DELETE_KEYS = metricsKeys(PetMetrics.DELETE);
+    private static final PetMetrics.Key FLUSH_WRITES_KEY =
+            new PetMetrics.Key(PetMetrics.FLUSH_WRITES, "PET_ID");
+    private static final PetMetrics.Key APPLY_BATCH_KEY =
+            new PetMetrics.Key(PetMetrics.APPLY_BATCH, "BATCH");
+
     /**
      * Initialize the db helper object
      */
     private PetDbHelper mDbHelper;
+    /**
+     * Coalesces change notifications from bursts of writes
+     */
+    private PetChangeNotifier mNotifier;
+    /**
+     * Recently read pets, answers PET_ID queries without SQLite
+     */
+    private final PetCache mCache = new PetCache(CACHE_SIZE);
+    /**
+     * Changes made by the batch running on the calling thread, null outside a batch.
+     * Notifications are held back here and sent together when the batch commits.
+     */
+    private final ThreadLocal<PetChangeNotifier.Changes> mBatchChanges =
+            new ThreadLocal<PetChangeNotifier.Changes>();
+    /**
+     * Call counts and latencies, read through {@link PetContract.MetricsEntry#CONTENT_URI}
+     */
+    private final PetMetrics mMetrics = new PetMetrics();
+    /**
+     * Recent queries over budget, read through {@link PetContract.SlowQueryEntry#CONTENT_URI}
+     */
+    private final PetSlowQueryLog mSlowQueryLog = new PetSlowQueryLog();
+    /**
+     * Updates made with {@link PetEntry#QUERY_PARAMETER_WRITE_BEHIND}, held until flushed.
+     * Package-private for tests only.
+     */
+    PetWriteBuffer mWriteBuffer;
+    /**
+     * Held while flushing, so a write that flushes first can't be overtaken by a flush
+     * already running on another thread. Always taken before any database transaction.
+     */
+    private final Object mFlushLock = new Object();
+    /**
+     * Databases of the shelter network, see {@link ShelterEntry}
+     */
+    private PetShards mShards;
+    /**
+     * Photo files, see {@link PetEntry#buildPhotoUri}
+     */
+    private PetPhotos mPhotos;
 
     @Override
     public boolean onCreate() {
         mDbHelper = new PetDbHelper(getContext());
+        mNotifier = new PetChangeNotifier(getContext().getContentResolver());
+        mShards = new PetShards(getContext());
+        mPhotos = new PetPhotos(getContext());
+        mWriteBuffer = new PetWriteBuffer(new PetWriteBuffer.Flusher() {
+            @Override
+            public void flushWrites() {
+                PetProvider.this.flushWrites();
+            }
+        });
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        //URI matcher to match URI to returned code ie. set path ids
+        int match = sUriMatcher.match(uri);
+        if (match == PET_METRICS) {
+            //not timed itself, so reading the metrics doesn't change them
+            return mMetrics.toCursor();
+        }
+        if (match == PET_SLOW_QUERIES) {
+            return mSlowQueryLog.toCursor();
+        }
+        PetMetrics.Timer timer = mMetrics.start(metricsKey(QUERY_KEYS, match));
+        int rows = 0;
+        try {
+            long start = System.nanoTime();
+            Cursor cursor = queryMatch(match, uri, projection, selection, selectionArgs,
+                    sortOrder, cancellationSignal);
+            try {
+                // Runs the query, so the time includes filling the first window
+                rows = cursor.getCount();
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+            mSlowQueryLog.queryFinished(cursor, matchName(match), System.nanoTime() - start,
+                    selectionArgs);
+            return cursor;
+        } finally {
+            mMetrics.stop(timer, rows);
+        }
+    }
+
+    /**
+     * Run a query for a matched URI
+     */
+    private Cursor queryMatch(int match, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder,
+                              CancellationSignal cancellationSignal) {
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        PetDbHelper shelter;
         // cursor to hold results of the query
         Cursor cursor;
-        //URI matcher to match URI to returned code ie. set path ids
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+                if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    //one page of the pets table, seeking past the last _id of the previous page
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+                    break;
+                }
                 //query the pets table directly for a cursor containing multiple rows
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, PetEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
                 break;
             case PET_ID:
-                //extract the ID from URI ie. selection "_id=?" selectionArgs int[int ?]
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                //perform the query where _id equals row # to return a Cursor containing that row
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryPetById(database, ContentUris.parseId(uri), projection,
+                        sortOrder, cancellationSignal);
+                break;
+            case PET_SEARCH:
+                cursor = searchPets(database, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            case PET_STATS:
+                //one row summing the totals of every gender
+                cursor = queryStats(database, PetEntry.GENDER_STATS_TABLE_NAME, sStatsProjectionMap,
+                        projection == null ? STATS_COLUMNS : projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            case PET_BREED_STATS:
+                //a row per breed that still has pets, largest first
+                cursor = queryStats(database, PetEntry.BREED_STATS_TABLE_NAME, sBreedStatsProjectionMap,
+                        projection == null ? BREED_STATS_COLUMNS : projection,
+                        andSelection(selection, PetEntry.COLUMN_PET_COUNT + " > 0"), selectionArgs,
+                        sortOrder == null ? PetEntry.COLUMN_PET_COUNT + " DESC, "
+                                + PetEntry.COLUMN_PET_BREED : sortOrder, cancellationSignal);
+                break;
+            case PET_CHANGES:
+                cursor = queryChanges(database, uri, projection, selection, sortOrder,
+                        cancellationSignal);
+                break;
+            case SHELTER_PETS:
+                //same as PETS on the shelter's own database
+                shelter = mShards.findHelper(shelterId(uri));
+                if (shelter == null) {
+                    //no pets were ever added to this shelter
+                    cursor = new MatrixCursor(
+                            projection == null ? PetCache.ALL_COLUMNS : projection, 0);
+                    break;
+                }
+                database = shelter.getReadableDatabase();
+                if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs,
+                            sortOrder, cancellationSignal);
+                    break;
+                }
+                cursor = database.query(false, PetEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case SHELTER_PET_ID:
+                shelter = mShards.findHelper(shelterId(uri));
+                if (shelter == null) {
+                    cursor = new MatrixCursor(
+                            projection == null ? PetCache.ALL_COLUMNS : projection, 0);
+                    break;
+                }
+                database = shelter.getReadableDatabase();
+                cursor = database.query(false, PetEntry.TABLE_NAME, projection, SELECTION_ID,
+                        new String[]{String.valueOf(ContentUris.parseId(uri))}, null, null,
+                        sortOrder, null, cancellationSignal);
+                break;
+            case ALL_SHELTER_PETS:
+                cursor = queryAllShelters(uri, projection, selection, selectionArgs,
+                        cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-        //Set notif URI on the Cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        //Set notif URI on the Cursor, a single pet listens on its own URI and
+        //lists, searches, stats and the change feed on a URI of their own, so they
+        //aren't woken by every pets/# URI of a burst
+        Uri notificationUri;
+        switch (match) {
+            case PET_ID:
+            case SHELTER_PET_ID:
+                notificationUri = uri;
+                break;
+            case PETS:
+                notificationUri = PetChangeNotifier.LIST_URI;
+                break;
+            case PET_SEARCH:
+                notificationUri = PetChangeNotifier.SEARCH_URI;
+                break;
+            case PET_STATS:
+                notificationUri = PetEntry.STATS_URI;
+                break;
+            case PET_BREED_STATS:
+                notificationUri = PetEntry.BREED_STATS_URI;
+                break;
+            case PET_CHANGES:
+                notificationUri = PetContract.ChangeEntry.CONTENT_URI;
+                break;
+            case SHELTER_PETS:
+                notificationUri = ShelterEntry.buildPetsUri(shelterId(uri));
+                break;
+            case ALL_SHELTER_PETS:
+                notificationUri = ShelterEntry.CONTENT_URI;
+                break;
+            default:
+                notificationUri = PetEntry.CONTENT_URI;
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return cursor;
     }
 
+    /**
+     * Query one page of pets from every shelter at once and merge them, sorted like
+     * {@link #queryPage} sorts each shelter's page
+     */
+    private Cursor queryAllShelters(final Uri uri, String[] projection, final String selection,
+                                    final String[] selectionArgs,
+                                    final CancellationSignal cancellationSignal) {
+        if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER) != null) {
+            throw new IllegalArgumentException("Pages of every shelter can't continue after a pet " + uri);
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Queries of every shelter need a page limit " + uri);
+        }
+        return mShards.fanOut(new PetShards.ShardQuery() {
+            @Override
+            public Cursor query(SQLiteDatabase database, String[] columns) {
+                return queryPage(database, uri, columns, selection, selectionArgs, null,
+                        cancellationSignal);
+            }
+        }, uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT), projection, limit,
+                cancellationSignal);
+    }
+
+    /**
+     * Return the shelter id of a shelters/#/pets URI
+     */
+    private static long shelterId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Query the change feed after the {@link PetContract.ChangeEntry#QUERY_PARAMETER_SINCE}
+     * sequence number. The feed has a fixed order and no selection.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String sortOrder,
+                                CancellationSignal cancellationSignal) {
+        if (selection != null || sortOrder != null) {
+            throw new IllegalArgumentException("Changes can only be read in order " + uri);
+        }
+        long since = 0;
+        String limit = uri.getQueryParameter(PetContract.ChangeEntry.QUERY_PARAMETER_LIMIT);
+        try {
+            String sinceParameter = uri.getQueryParameter(PetContract.ChangeEntry.QUERY_PARAMETER_SINCE);
+            if (sinceParameter != null) {
+                since = Long.parseLong(sinceParameter);
+            }
+            if (limit != null && Integer.parseInt(limit) <= 0) {
+                throw new IllegalArgumentException("Change limit must be positive " + uri);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid change parameters " + uri);
+        }
+        return PetChangeLog.query(database, projection, since, limit, cancellationSignal);
+    }
+
+    /**
+     * Query a single pet, answering from the cache when the projection allows it.
+     * A miss reads the whole row so any later projection can be served from the cache.
+     */
+    private Cursor queryPetById(SQLiteDatabase database, long id, String[] projection,
+                                String sortOrder, CancellationSignal cancellationSignal) {
+        if (!PetCache.canProject(projection)) {
+            //SQLite can't see updates still held in the write buffer, so write this pet's first
+            if (mWriteBuffer.get(id) != null && mBatchChanges.get() == null) {
+                flushWrites();
+            }
+            //perform the query where _id equals row # to return a Cursor containing that row
+            return database.query(false, PetEntry.TABLE_NAME, projection, SELECTION_ID,
+                    new String[]{String.valueOf(id)}, null, null, sortOrder, null,
+                    cancellationSignal);
+        }
+        Pet pet = mCache.get(id);
+        if (pet == null) {
+            long generation = mCache.generation();
+            pet = readPet(database, id, cancellationSignal);
+            if (pet != null) {
+                mCache.put(pet, generation);
+            }
+        }
+        // The cache holds committed rows, updates still held in the write buffer go on top
+        ContentValues held = mWriteBuffer.get(id);
+        if (pet != null && held != null) {
+            pet = PetWriteBuffer.apply(pet, held);
+        }
+        return PetCache.toCursor(pet, projection);
+    }
+
+    /**
+     * Read one pet from the database, or return null if there is no pet with that ID
+     */
+    private static Pet readPet(SQLiteDatabase database, long id,
+                               CancellationSignal cancellationSignal) {
+        Cursor cursor = database.query(false, PetEntry.TABLE_NAME, PetCache.ALL_COLUMNS,
+                SELECTION_ID, new String[]{String.valueOf(id)}, null, null, null, null,
+                cancellationSignal);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Pet(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getInt(3), cursor.getInt(4), cursor.getString(5));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Query one page of pets, ordered by the {@link PetEntry#QUERY_PARAMETER_SORT} column then
+     * _id, and filtered by the filter parameters. The page starts after the sort key and _id
+     * of the last pet on the previous page, so SQLite seeks straight to it in the index
+     * instead of stepping over every earlier row like OFFSET would.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder,
+                             CancellationSignal cancellationSignal) {
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Paged queries are ordered by the sort parameter " + uri);
+        }
+        String sortColumn = sortColumn(uri);
+        int limit;
+        long afterId = -1;
+        try {
+            limit = Integer.parseInt(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT));
+            String after = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER);
+            if (after != null) {
+                afterId = Long.parseLong(after);
+            }
+            //filters, every value is bound as an argument
+            String gender = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER);
+            if (gender != null) {
+                selection = andSelection(selection, PetEntry.COLUMN_PET_GENDER + "=?");
+                selectionArgs = appendArgs(selectionArgs, String.valueOf(Integer.parseInt(gender)));
+            }
+            String minWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT);
+            if (minWeight != null) {
+                selection = andSelection(selection, PetEntry.COLUMN_PET_WEIGHT + ">=?");
+                selectionArgs = appendArgs(selectionArgs, String.valueOf(Integer.parseInt(minWeight)));
+            }
+            String maxWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT);
+            if (maxWeight != null) {
+                selection = andSelection(selection, PetEntry.COLUMN_PET_WEIGHT + "<=?");
+                selectionArgs = appendArgs(selectionArgs, String.valueOf(Integer.parseInt(maxWeight)));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page parameters " + uri);
+        }
+        String breed = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED);
+        if (breed != null) {
+            selection = andSelection(selection, PetEntry.COLUMN_PET_BREED + "=?");
+            selectionArgs = appendArgs(selectionArgs, breed);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive " + uri);
+        }
+        if (afterId >= 0) {
+            String id = String.valueOf(afterId);
+            String afterKey = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_KEY);
+            if (sortColumn == null) {
+                selection = andSelection(selection, PetEntry._ID + ">?");
+                selectionArgs = appendArgs(selectionArgs, id);
+            } else if (afterKey == null) {
+                //nulls sort first, so after a null key come the rest of the nulls then every other pet
+                selection = andSelection(selection, "((" + sortColumn + " IS NULL AND "
+                        + PetEntry._ID + ">?) OR " + sortColumn + " IS NOT NULL)");
+                selectionArgs = appendArgs(selectionArgs, id);
+            } else {
+                //the >= bound lets SQLite start the index scan at the key, ties go by _id
+                selection = andSelection(selection, sortColumn + ">=? AND (" + sortColumn + ">? OR "
+                        + PetEntry._ID + ">?)");
+                selectionArgs = appendArgs(selectionArgs, afterKey, afterKey, id);
+            }
+        }
+        String orderBy = sortColumn == null ? PetEntry._ID + " ASC"
+                : sortColumn + " ASC, " + PetEntry._ID + " ASC";
+        return database.query(false, PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, orderBy, String.valueOf(limit), cancellationSignal);
+    }
+
+    /**
+     * Return the SQL to sort a page by, from the whitelisted sort parameter, or null to sort by
+     * _id. Each one reads its index in order: name uses the NOCASE name index.
+     */
+    private static String sortColumn(Uri uri) {
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        if (sort == null) {
+            return null;
+        }
+        if (sort.equals(PetEntry.SORT_NAME)) {
+            return PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE";
+        } else if (sort.equals(PetEntry.SORT_BREED)) {
+            return PetEntry.COLUMN_PET_BREED;
+        } else if (sort.equals(PetEntry.SORT_WEIGHT)) {
+            return PetEntry.COLUMN_PET_WEIGHT;
+        }
+        throw new IllegalArgumentException("Unsupported sort " + uri);
+    }
+
+    /**
+     * Search pet names and breeds for words starting with each term in the last path segment.
+     * Without a sort order, pets matching more terms in more places come first.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              CancellationSignal cancellationSignal) {
+        String matchQuery = buildMatchQuery(uri.getLastPathSegment());
+        if (matchQuery == null) {
+            //nothing searchable, return an empty cursor with the requested columns
+            return database.query(false, PetEntry.TABLE_NAME, projection, "0", null,
+                    null, null, null, null, cancellationSignal);
+        }
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetEntry.TABLE_NAME + " JOIN " + PetEntry.SEARCH_TABLE_NAME + " ON "
+                + PetEntry.TABLE_NAME + "." + PetEntry._ID + " = "
+                + PetEntry.SEARCH_TABLE_NAME + ".docid");
+        builder.setProjectionMap(sSearchProjectionMap);
+        if (projection == null) {
+            projection = sSearchProjectionMap.keySet().toArray(new String[sSearchProjectionMap.size()]);
+        }
+        selection = andSelection(selection, PetEntry.SEARCH_TABLE_NAME + " MATCH ?");
+        selectionArgs = appendArgs(selectionArgs, matchQuery);
+        if (sortOrder == null) {
+            // offsets() lists every matched term, so a longer result means more hits
+            sortOrder = "length(offsets(" + PetEntry.SEARCH_TABLE_NAME + ")) DESC, "
+                    + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME;
+        }
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder, null, cancellationSignal);
+    }
+
+    /**
+     * Query a stats table. Triggers keep its rows up to date as pets are written, so this
+     * reads a row per gender or breed however many pets there are.
+     */
+    private static Cursor queryStats(SQLiteDatabase database, String table,
+                                     HashMap<String, String> projectionMap, String[] projection,
+                                     String selection, String[] selectionArgs, String sortOrder,
+                                     CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(table);
+        builder.setProjectionMap(projectionMap);
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder, null, cancellationSignal);
+    }
+
+    /**
+     * Turn free text into a full-text query where every word is a prefix match ie. "tob te"
+     * becomes "tob* te*". Return null if the text has no letters or digits.
+     */
+    private static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        for (String term : text.split("[^\\p{L}\\p{N}]+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(term).append('*');
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    /**
+     * Combine the caller's selection with another clause using AND
+     */
+    private static String andSelection(String selection, String clause) {
+        return selection == null ? clause : "(" + selection + ") AND " + clause;
+    }
+
+    /**
+     * Return the caller's selection arguments followed by more arguments
+     */
+    private static String[] appendArgs(String[] selectionArgs, String... more) {
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[argCount + more.length];
+        if (argCount > 0) {
+            System.arraycopy(selectionArgs, 0, args, 0, argCount);
+        }
+        System.arraycopy(more, 0, args, argCount, more.length);
+        return args;
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -91,6 +741,28 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PET_STATS:
+                return PetEntry.STATS_ITEM_TYPE;
+            case PET_BREED_STATS:
+                return PetEntry.BREED_STATS_LIST_TYPE;
+            case PET_EXPORT:
+            case PET_IMPORT:
+                return PetTransfer.mimeType(transferFormat(uri));
+            case PET_METRICS:
+                return PetContract.MetricsEntry.CONTENT_TYPE;
+            case PET_SLOW_QUERIES:
+                return PetContract.SlowQueryEntry.CONTENT_TYPE;
+            case PET_CHANGES:
+                return PetContract.ChangeEntry.CONTENT_TYPE;
+            case SHELTER_PETS:
+            case ALL_SHELTER_PETS:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case SHELTER_PET_ID:
+                return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_PHOTO:
+                return PetEntry.PHOTO_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI "+uri+" with match "+match);
         }
@@ -98,12 +770,28 @@ public class PetProvider extends ContentProvider {
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        StrictMode.noteSlowCall(SLOW_CALL_WRITE);
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        PetMetrics.Timer timer = mMetrics.start(metricsKey(INSERT_KEYS, match));
+        Uri newUri = null;
+        try {
+            switch (match) {
+                case PETS:
+                    newUri = insertPet(uri, contentValues);
+                    return newUri;
+                case SHELTER_PETS:
+                    long id = insertShelterPets(uri, new ContentValues[]{contentValues})[0];
+                    if (id == -1) {
+                        Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                        return null;
+                    }
+                    newUri = ContentUris.withAppendedId(uri, id);
+                    return newUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            mMetrics.stop(timer, newUri == null ? 0 : 1);
         }
     }
 
@@ -111,79 +799,969 @@ public class PetProvider extends ContentProvider {
      * Insert a pet into db w/ content values.  Return the new content URI for inserted row
      */
     private Uri insertPet(Uri uri, ContentValues values) {
-        //check that name is not null
-        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        if (name.isEmpty()) {
-            // Toast.makeText(getContext(),"name field :" +name+"/", Toast.LENGTH_LONG ).show();
-            throw new IllegalArgumentException("Pet requires a name");
-        }
-        //validate weight not 0kg
-        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (weight == null || weight < 0) {
-            throw new IllegalArgumentException("Pet requires valid weight");
-        }
-        // Get writable db object
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        // Insert the new pet w/ content values
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
+        validateInsert(values);
+        // Insert the new pet w/ content values, binding straight to the compiled statement
+        // when the values hold every column
+        long id = insertRow(values);
         // If the ID -1, insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
-        //Notify listeners data has changed for pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        //Notify listeners data has changed for the new pet
+        notifyRowChanged(id);
         // Return the new URI with the ID appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Insert pets into one shelter's database in a single transaction and notify that
+     * shelter once. Return the ID of each pet, or -1 where the insert failed.
+     */
+    private long[] insertShelterPets(Uri uri, ContentValues[] values) {
+        for (ContentValues value : values) {
+            validateInsert(value);
+        }
+        SQLiteDatabase database = mShards.getHelper(shelterId(uri)).getWritableDatabase();
+        long[] ids = new long[values.length];
+        boolean inserted = false;
+        PetMetrics.beginWrite(database);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                ids[i] = database.insert(PetEntry.TABLE_NAME, null, values[i]);
+                inserted |= ids[i] != -1;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (inserted) {
+            notifyShelterChanged(uri);
+        }
+        return ids;
+    }
+
+    /**
+     * Update, or delete if values is null, pets of one shelter. The write takes only that
+     * shelter's write lock, and only observers of that shelter are notified.
+     */
+    private int writeShelterPets(int match, Uri uri, ContentValues values, String selection,
+                                 String[] selectionArgs) {
+        if (match == SHELTER_PET_ID) {
+            selection = SELECTION_ID;
+            selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+        } else if (values == null && uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+            selection = deleteChunkSelection(uri, selection,
+                    uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT));
+        }
+        if (values != null) {
+            if (values.size() == 0) {
+                return 0;
+            }
+            validateUpdate(values);
+        }
+        PetDbHelper shelter = mShards.findHelper(shelterId(uri));
+        if (shelter == null) {
+            //nothing to update or delete in a shelter that has no database
+            return 0;
+        }
+        SQLiteDatabase database = shelter.getWritableDatabase();
+        int rows;
+        PetMetrics.beginWrite(database);
+        try {
+            rows = values == null
+                    ? database.delete(PetEntry.TABLE_NAME, selection, selectionArgs)
+                    : database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (rows != 0) {
+            notifyShelterChanged(uri);
+        }
+        return rows;
+    }
+
+    /**
+     * Notify observers of the shelter in a shelters/#/pets URI, and of the whole network
+     */
+    private void notifyShelterChanged(Uri uri) {
+        getContext().getContentResolver().notifyChange(ShelterEntry.buildPetsUri(shelterId(uri)),
+                null);
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        StrictMode.noteSlowCall(SLOW_CALL_WRITE);
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        int rowsDeleted;
+        int rowsDeleted = 0;
 
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+        PetMetrics.Timer timer = mMetrics.start(metricsKey(DELETE_KEYS, match));
+        try {
+            if (match == SHELTER_PETS || match == SHELTER_PET_ID) {
+                rowsDeleted = writeShelterPets(match, uri, null, selection, selectionArgs);
+                return rowsDeleted;
+            }
+            // Held updates happened first, write them before they can land on the wrong rows
+            flushWritesIfAny();
+            switch (match) {
+                case PETS:
+                    String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+                    if (limit != null) {
+                        //only the first chunk of matching pets, so a huge delete can be split up
+                        selection = deleteChunkSelection(uri, selection, limit);
+                    }
+                    PetMetrics.beginWrite(database);
+                    try {
+                        rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                    if (rowsDeleted != 0) {
+                        notifyTableChanged();
+                    }
+                    break;
 
-            case PET_ID:
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{ String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+                case PET_ID:
+                    long id = ContentUris.parseId(uri);
+                    rowsDeleted = mDbHelper.getStatements().delete(id);
+                    if (rowsDeleted != 0) {
+                        notifyRowChanged(id);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Deletion is not supported for " + uri);
+            }
+            return rowsDeleted;
+        } finally {
+            mMetrics.stop(timer, rowsDeleted);
         }
-        if(rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Return a selection for the limit lowest _id pets matching the caller's selection. The
+     * subquery reads them in rowid order, so each chunk is a short range of the table.
+     */
+    private static String deleteChunkSelection(Uri uri, String selection, String limit) {
+        try {
+            if (Integer.parseInt(limit) <= 0) {
+                throw new IllegalArgumentException("Delete limit must be positive " + uri);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid delete limit " + uri);
         }
-        return rowsDeleted;
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+                + (selection == null ? "" : " WHERE " + selection) + " ORDER BY " + PetEntry._ID
+                + " LIMIT " + limit + ")";
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        StrictMode.noteSlowCall(SLOW_CALL_WRITE);
         final int match = sUriMatcher.match(uri);
+        PetMetrics.Timer timer = mMetrics.start(metricsKey(UPDATE_KEYS, match));
+        int rowsUpdated = 0;
+        try {
+            // Inside a batch the update is written with the batch, so later operations in the
+            // same batch can't be overtaken by it
+            if (match == PET_ID && isWriteBehind(uri) && mWriteBuffer.isEnabled()
+                    && mBatchChanges.get() == null) {
+                rowsUpdated = holdUpdate(contentValues, ContentUris.parseId(uri));
+                return rowsUpdated;
+            }
+            if (match == SHELTER_PETS || match == SHELTER_PET_ID) {
+                rowsUpdated = writeShelterPets(match, uri, contentValues, selection, selectionArgs);
+                return rowsUpdated;
+            }
+            // Held updates happened first, write them so this update lands after them
+            flushWritesIfAny();
+            switch (match) {
+                case PETS:
+                    rowsUpdated = updatePet(contentValues, selection, selectionArgs);
+                    if (rowsUpdated != 0) {
+                        notifyTableChanged();
+                    }
+                    return rowsUpdated;
+                case PET_ID:
+                    rowsUpdated = updatePetById(contentValues, ContentUris.parseId(uri));
+                    return rowsUpdated;
+                default:
+                    throw new IllegalArgumentException("Update is not suppported for " + uri);
+            }
+        } finally {
+            mMetrics.stop(timer, rowsUpdated);
+        }
+    }
+
+    private static boolean isWriteBehind(Uri uri) {
+        return uri.getBooleanQueryParameter(PetEntry.QUERY_PARAMETER_WRITE_BEHIND, false);
+    }
+
+    /**
+     * Hold an update to one pet in the write buffer. It is validated now, and PET_ID queries
+     * see it at once, but it is written and notified with the next flush.
+     * Return 1, or 0 if there is no such pet.
+     */
+    private int holdUpdate(ContentValues values, long id) {
+        if (values.size() == 0) {
+            return 0;
+        }
+        validateHeldUpdate(values);
+        if (mWriteBuffer.get(id) == null && mCache.peek(id) == null
+                && readPet(mDbHelper.getReadableDatabase(), id, null) == null) {
+            return 0;
+        }
+        mWriteBuffer.put(id, values);
+        return 1;
+    }
+
+    /**
+     * Flush held updates before a direct write. Within a batch the batch flushed on entry,
+     * and anything held since came from another thread, so there's no order to keep.
+     */
+    private void flushWritesIfAny() {
+        if (!mWriteBuffer.isEmpty() && mBatchChanges.get() == null) {
+            flushWrites();
+        }
+    }
+
+    /**
+     * Write every held update in one transaction, with one burst of notifications
+     */
+    private void flushWrites() {
+        synchronized (mFlushLock) {
+            Map<Long, ContentValues> writes = mWriteBuffer.snapshot();
+            if (writes.isEmpty()) {
+                return;
+            }
+            PetMetrics.Timer timer = mMetrics.start(FLUSH_WRITES_KEY);
+            int rowsUpdated = 0;
+            try {
+                rowsUpdated = writeHeld(writes);
+                // Only now can reads stop overlaying the held values
+                mWriteBuffer.flushed(writes);
+            } catch (RuntimeException e) {
+                // One bad update fails them all, so write them one by one to find it
+                Log.e(LOG_TAG, "Failed to flush " + writes.size() + " held updates", e);
+                rowsUpdated = flushEach(writes);
+            } finally {
+                mMetrics.stop(timer, rowsUpdated);
+            }
+        }
+    }
+
+    /**
+     * Write held updates one transaction each, after writing them together failed. An update
+     * SQLite rejects is dropped and logged, since it would fail the same way on every retry
+     * and hold up every other pet's. A full disk or a locked or unreadable file is no fault of
+     * the update, so it and the rest stay held for a retry.
+     */
+    private int flushEach(Map<Long, ContentValues> writes) {
+        int rowsUpdated = 0;
+        for (Map.Entry<Long, ContentValues> write : writes.entrySet()) {
+            Map<Long, ContentValues> one = Collections.singletonMap(write.getKey(),
+                    write.getValue());
+            try {
+                rowsUpdated += writeHeld(one);
+                mWriteBuffer.flushed(one);
+            } catch (RuntimeException e) {
+                if (isStorageFailure(e)) {
+                    Log.e(LOG_TAG, "Failed to flush held updates, retrying later", e);
+                    mWriteBuffer.retry();
+                    break;
+                }
+                Log.e(LOG_TAG, "Dropping held update to pet " + write.getKey() + " "
+                        + write.getValue(), e);
+                mWriteBuffer.flushed(one);
+                // Readers were shown the held values, the pet is back to what's stored
+                notifyRowChanged(write.getKey());
+            }
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Return true if a write failed because of the file rather than the values written
+     */
+    private static boolean isStorageFailure(RuntimeException e) {
+        return e instanceof SQLiteFullException || e instanceof SQLiteDatabaseLockedException
+                || e instanceof SQLiteDiskIOException || e instanceof SQLiteCantOpenDatabaseException;
+    }
+
+    /**
+     * Write held updates in one transaction with one burst of notifications, return the number
+     * of rows updated
+     */
+    private int writeHeld(Map<Long, ContentValues> writes) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetChangeNotifier.Changes changes = null;
+        boolean inTransaction = false;
+        boolean committed = false;
+        int rowsUpdated = 0;
+        try {
+            changes = beginBatch();
+            PetMetrics.beginWrite(database);
+            inTransaction = true;
+            for (Map.Entry<Long, ContentValues> write : writes.entrySet()) {
+                rowsUpdated += updatePetById(write.getValue(), write.getKey());
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (inTransaction) {
+                database.endTransaction();
+            }
+            if (changes != null) {
+                endBatch(changes, committed);
+            }
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Update a single pet, using the compiled full-row statement when every column is given
+     */
+    private int updatePetById(ContentValues values, long id) {
+        int rowsUpdated;
+        if (PetStatements.hasAllColumns(values)) {
+            validateUpdate(values);
+            rowsUpdated = mDbHelper.getStatements().update(id, values);
+        } else {
+            rowsUpdated = updatePet(values, SELECTION_ID, new String[]{String.valueOf(id)});
+        }
+        if (rowsUpdated != 0) {
+            notifyRowChanged(id);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the pets matching the selection and return the number of rows affected.
+     * Callers send the change notification, since only they know which rows were meant.
+     */
+    private int updatePet(ContentValues values, String selection, String[] selectionArgs) {
+        if (values.size() == 0) {
+            return 0;
+        }
+        validateUpdate(values);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetMetrics.beginWrite(database);
+        try {
+            //Perform the update on db and get num rows affedted
+            int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+        final int match = sUriMatcher.match(uri);
+        PetMetrics.Timer timer = mMetrics.start(metricsKey(BULK_INSERT_KEYS, match));
+        int rowsInserted = 0;
+        try {
+            switch (match) {
+                case PETS:
+                    rowsInserted = bulkInsertPets(values);
+                    return rowsInserted;
+                case SHELTER_PETS:
+                    for (long id : insertShelterPets(uri, values)) {
+                        if (id != -1) {
+                            rowsInserted++;
+                        }
+                    }
+                    return rowsInserted;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            mMetrics.stop(timer, rowsInserted);
+        }
+    }
+
+    /**
+     * Insert all rows in a single transaction and notify listeners once at commit.
+     * Every row is validated before anything is written, so a bad row rejects the whole batch.
+     */
+    private int bulkInsertPets(ContentValues[] values) {
+        for (ContentValues value : values) {
+            validateInsert(value);
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetChangeNotifier.Changes changes = null;
+        boolean inTransaction = false;
+        boolean committed = false;
+        int rowsInserted = 0;
+        try {
+            changes = beginBatch();
+            PetMetrics.beginWrite(database);
+            inTransaction = true;
+            for (ContentValues value : values) {
+                long id = insertRow(value);
+                if (id != -1) {
+                    rowsInserted++;
+                    notifyRowChanged(id);
+                }
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (inTransaction) {
+                database.endTransaction();
+            }
+            if (changes != null) {
+                endBatch(changes, committed);
+            }
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all operations in a single transaction. Per-row notifications are collected
+     * while the batch runs and sent as one burst once it commits.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetMetrics.Timer timer = mMetrics.start(APPLY_BATCH_KEY);
+        flushWritesIfAny();
+        PetChangeNotifier.Changes changes = null;
+        boolean inTransaction = false;
+        boolean committed = false;
+        int operationsApplied = 0;
+        try {
+            changes = beginBatch();
+            PetMetrics.beginWrite(database);
+            inTransaction = true;
+            ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            committed = true;
+            operationsApplied = results.length;
+            return results;
+        } finally {
+            // Whatever was entered is left again, even if starting the transaction failed
+            if (inTransaction) {
+                database.endTransaction();
+            }
+            if (changes != null) {
+                endBatch(changes, committed);
+            }
+            mMetrics.stop(timer, operationsApplied);
+        }
+    }
+
+    /**
+     * Insert one row and return its ID, or -1 on failure
+     */
+    private long insertRow(ContentValues values) {
+        if (PetStatements.hasAllColumns(values)) {
+            return mDbHelper.getStatements().insert(values);
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetMetrics.beginWrite(database);
+        try {
+            long id = database.insert(PetEntry.TABLE_NAME, null, values);
+            database.setTransactionSuccessful();
+            return id;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Return the metrics keys of an operation, one per match code from PETS to LAST_MATCH
+     * followed by one for no match
+     */
+    private static PetMetrics.Key[] metricsKeys(String operation) {
+        PetMetrics.Key[] keys = new PetMetrics.Key[LAST_MATCH - PETS + 2];
+        for (int match = PETS; match <= LAST_MATCH; match++) {
+            keys[match - PETS] = new PetMetrics.Key(operation, matchName(match));
+        }
+        keys[keys.length - 1] = new PetMetrics.Key(operation, matchName(UriMatcher.NO_MATCH));
+        return keys;
+    }
+
+    /**
+     * Return the key of a match code from an operation's {@link #metricsKeys}
+     */
+    private static PetMetrics.Key metricsKey(PetMetrics.Key[] keys, int match) {
+        return match >= PETS && match <= LAST_MATCH ? keys[match - PETS] : keys[keys.length - 1];
+    }
+
+    /**
+     * Return the name a URI match is recorded under in the metrics
+     */
+    private static String matchName(int match) {
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                return "PETS";
             case PET_ID:
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                return "PET_ID";
+            case PET_SEARCH:
+                return "PET_SEARCH";
+            case PET_STATS:
+                return "PET_STATS";
+            case PET_BREED_STATS:
+                return "PET_BREED_STATS";
+            case PET_CHANGES:
+                return "PET_CHANGES";
+            case SHELTER_PETS:
+                return "SHELTER_PETS";
+            case SHELTER_PET_ID:
+                return "SHELTER_PET_ID";
+            case ALL_SHELTER_PETS:
+                return "ALL_SHELTER_PETS";
+            case PET_PHOTO:
+                return "PET_PHOTO";
             default:
-                throw new IllegalArgumentException("Update is not suppported for " + uri);
+                return "UNKNOWN";
         }
     }
 
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        if (values.size() == 0) {
-            return 0;
+    /**
+     * Open an export URI for reading or an import URI for writing. Both are pipes, so rows
+     * stream through in batches and a table of any size never has to fit in memory.
+     * A photo URI opens the photo file itself for reading, or a pipe for writing a new one.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PET_EXPORT:
+                if (!"r".equals(mode)) {
+                    throw new FileNotFoundException("Export can only be read " + uri);
+                }
+                return openPipeHelper(uri, getType(uri), null, transferFormat(uri),
+                        new PipeDataWriter<String>() {
+                            @Override
+                            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri,
+                                                        String mimeType, Bundle opts,
+                                                        String format) {
+                                exportPets(output, format);
+                            }
+                        });
+            case PET_IMPORT:
+                if (!mode.startsWith("w")) {
+                    throw new FileNotFoundException("Import can only be written " + uri);
+                }
+                return openImportPipe(transferFormat(uri));
+            case PET_PHOTO:
+                long id = Long.parseLong(uri.getPathSegments().get(1));
+                if (mode.startsWith("w")) {
+                    return openPhotoPipe(id);
+                }
+                if (!"r".equals(mode)) {
+                    throw new FileNotFoundException("Photo can only be read or replaced " + uri);
+                }
+                Pet pet = readPetCached(id);
+                if (pet == null || pet.photo == null) {
+                    throw new FileNotFoundException("No photo for " + uri);
+                }
+                // The file itself rather than a pipe, so readers can seek and decode in place
+                return ParcelFileDescriptor.open(mPhotos.file(pet.photo),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+            default:
+                throw new FileNotFoundException("No file for " + uri);
+        }
+    }
+
+    /**
+     * Return the format of an export or import URI
+     */
+    private static String transferFormat(Uri uri) {
+        String format = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null) {
+            return PetEntry.FORMAT_CSV;
         }
+        if (!PetEntry.FORMAT_CSV.equals(format) && !PetEntry.FORMAT_JSON.equals(format)) {
+            throw new IllegalArgumentException("Unsupported format " + uri);
+        }
+        return format;
+    }
+
+    /**
+     * Write every pet to the pipe, called on a background thread by openPipeHelper,
+     * which closes the pipe afterwards
+     */
+    private void exportPets(ParcelFileDescriptor output, String format) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            int rows = PetTransfer.exportPets(mDbHelper.getReadableDatabase(), format,
+                    new FileOutputStream(output.getFileDescriptor()));
+            logThroughput("Exported", rows, start);
+        } catch (IOException e) {
+            // The reader closed the pipe early
+            Log.e(LOG_TAG, "Export failed", e);
+        }
+    }
+
+    /**
+     * Return the write end of a pipe whose contents are inserted as they arrive, a batch
+     * per transaction. A bad row stops the import, batches committed before it are kept,
+     * and so are the rows of its own batch that could be inserted. From KitKat the pipe is
+     * closed with the error, which the writer sees from a write or from checkError.
+     */
+    private ParcelFileDescriptor openImportPipe(final String format) throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? ParcelFileDescriptor.createReliablePipe() : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not create import pipe: " + e.getMessage());
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+                String error = null;
+                try {
+                    int rows = PetTransfer.importPets(in, format, new PetTransfer.BatchInserter() {
+                        @Override
+                        public int insert(ContentValues[] batch) {
+                            return bulkInsertPets(batch);
+                        }
+                    });
+                    logThroughput("Imported", rows, start);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Import failed", e);
+                    error = "Import failed: " + e.getMessage();
+                } catch (RuntimeException e) {
+                    // Malformed input or a row that fails validation
+                    Log.e(LOG_TAG, "Import failed", e);
+                    error = "Import failed: " + e.getMessage();
+                } finally {
+                    try {
+                        if (error != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                            pipe[0].closeWithError(error);
+                        } else {
+                            in.close();
+                        }
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Failed to close import pipe", e);
+                    }
+                }
+            }
+        }, "PetImport").start();
+        return pipe[1];
+    }
+
+    /**
+     * Return the write end of a pipe whose contents become the pet's new photo. The pet only
+     * refers to the new file once it is completely written, and then the old file is deleted.
+     */
+    private ParcelFileDescriptor openPhotoPipe(final long id) throws FileNotFoundException {
+        if (readPetCached(id) == null) {
+            throw new FileNotFoundException("No pet with ID " + id);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not create photo pipe: " + e.getMessage());
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+                try {
+                    String name = mPhotos.write(id, in);
+                    if (name != null && !setPhoto(id, name)) {
+                        // The pet was deleted while the photo was written
+                        mPhotos.delete(name);
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Photo write failed", e);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Photo write failed", e);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Failed to close photo pipe", e);
+                    }
+                }
+            }
+        }, "PetPhoto").start();
+        return pipe[1];
+    }
+
+    /**
+     * Point a pet at a new photo file and delete the one it replaces.
+     * Return false if there is no such pet.
+     */
+    private boolean setPhoto(long id, String name) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] args = new String[]{String.valueOf(id)};
+        String previous;
+        PetMetrics.beginWrite(database);
+        try {
+            Cursor cursor = database.query(PetEntry.TABLE_NAME,
+                    new String[]{PetEntry.COLUMN_PET_PHOTO}, SELECTION_ID, args, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                previous = cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+            // Not through updatePet, clients can't set the column themselves
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_PHOTO, name);
+            database.update(PetEntry.TABLE_NAME, values, SELECTION_ID, args);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        notifyRowChanged(id);
+        mPhotos.delete(previous);
+        return true;
+    }
+
+    /**
+     * Return a pet from the cache or the database, or null if there is no pet with that ID
+     */
+    private Pet readPetCached(long id) {
+        Pet pet = mCache.peek(id);
+        if (pet == null) {
+            long generation = mCache.generation();
+            pet = readPet(mDbHelper.getReadableDatabase(), id, null);
+            if (pet != null) {
+                mCache.put(pet, generation);
+            }
+        }
+        return pet;
+    }
+
+    /**
+     * Delete the photo files no pet refers to, leaving recent ones a write may be about to use
+     *
+     * @return number of files deleted
+     */
+    private int deleteUnusedPhotos() {
+        long olderThan = System.currentTimeMillis() - PetPhotos.UNUSED_MIN_AGE_MS;
+        Set<String> used = new HashSet<String>();
+        Cursor cursor = mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                new String[]{PetEntry.COLUMN_PET_PHOTO}, PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL",
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                used.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return mPhotos.deleteUnused(used, olderThan);
+    }
+
+    private static void logThroughput(String action, int rows, long start) {
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - start);
+        Log.i(LOG_TAG, action + " " + rows + " pets in " + elapsedMs + " ms ("
+                + (rows * 1000L / elapsedMs) + " rows/sec)");
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(PetContract.KEY_CACHE_HITS, mCache.hitCount());
+            stats.putInt(PetContract.KEY_CACHE_MISSES, mCache.missCount());
+            stats.putInt(PetContract.KEY_CACHE_EVICTIONS, mCache.evictionCount());
+            stats.putInt(PetContract.KEY_CACHE_SIZE, mCache.size());
+            return stats;
+        }
+        if (PetContract.METHOD_FLUSH_WRITES.equals(method)) {
+            StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+            flushWrites();
+            return null;
+        }
+        if (PetContract.METHOD_SET_WRITE_BEHIND_DELAY.equals(method)) {
+            long delayMs;
+            try {
+                delayMs = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid write-behind delay " + arg);
+            }
+            if (delayMs < 0) {
+                throw new IllegalArgumentException("Invalid write-behind delay " + arg);
+            }
+            mWriteBuffer.setDelayMs(delayMs);
+            if (delayMs == 0) {
+                flushWrites();
+            }
+            return null;
+        }
+        if (PetContract.METHOD_COMPACT_CHANGES.equals(method)) {
+            StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_CHANGES_REMOVED, compactChanges());
+            return result;
+        }
+        if (PetContract.METHOD_ENABLE_INCREMENTAL_VACUUM.equals(method)) {
+            StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+            if (mDbHelper.enableIncrementalVacuum()) {
+                Log.i(LOG_TAG, "Rebuilt the database for incremental vacuum");
+            }
+            return null;
+        }
+        if (PetContract.METHOD_RECLAIM_SPACE.equals(method)) {
+            StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+            int pages;
+            try {
+                pages = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page count " + arg);
+            }
+            // incremental_vacuum frees every page for 0, which would hold the lock throughout
+            if (pages <= 0) {
+                throw new IllegalArgumentException("Page count must be positive " + arg);
+            }
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_FREE_PAGES, mDbHelper.reclaimSpace(pages));
+            return result;
+        }
+        if (PetContract.METHOD_DELETE_UNUSED_PHOTOS.equals(method)) {
+            StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_PHOTOS_REMOVED, deleteUnusedPhotos());
+            return result;
+        }
+        if (PetContract.METHOD_OPTIMIZE.equals(method)) {
+            StrictMode.noteSlowCall(SLOW_CALL_WRITE);
+            mDbHelper.optimize();
+            return null;
+        }
+        if (PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            try {
+                mSlowQueryLog.setThresholdMs(Long.parseLong(arg));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid slow query threshold " + arg);
+            }
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Drop superseded and truncated changes from the change feed in one transaction
+     *
+     * @return number of changes dropped
+     */
+    private int compactChanges() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetMetrics.beginWrite(database);
+        try {
+            int removed = PetChangeLog.compact(database);
+            database.setTransactionSuccessful();
+            return removed;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Print the slow query log, ie. adb shell dumpsys activity provider PetProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mSlowQueryLog.dump(writer);
+    }
+
+    /**
+     * Close every database, for tests that create the provider themselves
+     */
+    @Override
+    public void shutdown() {
+        flushWritesIfAny();
+        mShards.close();
+        mDbHelper.close();
+        super.shutdown();
+    }
+
+    /**
+     * Start holding back notifications on this thread until {@link #endBatch} is called
+     */
+    private PetChangeNotifier.Changes beginBatch() {
+        PetChangeNotifier.Changes changes = new PetChangeNotifier.Changes();
+        mBatchChanges.set(changes);
+        return changes;
+    }
+
+    /**
+     * Stop holding back notifications, and send the ones collected if the batch committed
+     */
+    private void endBatch(PetChangeNotifier.Changes changes, boolean committed) {
+        mBatchChanges.remove();
+        if (!changes.isEmpty()) {
+            // A read during the transaction could have cached a row from before it
+            mCache.invalidateAll();
+        }
+        if (committed && !changes.isEmpty()) {
+            mNotifier.sendNow(changes);
+        }
+    }
+
+    /**
+     * Notify listeners a single pet changed, or hold the notification back if a batch
+     * is running on this thread
+     */
+    private void notifyRowChanged(long id) {
+        mCache.invalidate(id);
+        PetChangeNotifier.Changes changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.addRow(id);
+        } else {
+            mNotifier.rowChanged(id);
+        }
+    }
+
+    /**
+     * Notify listeners any number of pets changed, or hold the notification back if a batch
+     * is running on this thread
+     */
+    private void notifyTableChanged() {
+        mCache.invalidateAll();
+        PetChangeNotifier.Changes changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.addTable();
+        } else {
+            mNotifier.tableChanged();
+        }
+    }
+
+    /**
+     * Validate values for a new pet: name is required and weight must not be negative
+     */
+    static void validateInsert(ContentValues values) {
+        validatePhoto(values);
+        //check that name is not null
+        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+        //validate weight not 0kg
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        if (weight == null || weight < 0) {
+            throw new IllegalArgumentException("Pet requires valid weight");
+        }
+    }
+
+    /**
+     * Validate values for an update, only the columns present are checked
+     */
+    static void validateUpdate(ContentValues values) {
+        validatePhoto(values);
         if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
             String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-            if (name.isEmpty()) {
+            if (name == null || name.isEmpty()) {
                 throw new IllegalArgumentException("Pet requires a name");
             }
         }
@@ -194,16 +1772,35 @@ public class PetProvider extends ContentProvider {
                 throw new IllegalArgumentException("Pet requires valid weight");
             }
         }
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        //returns number of rows affected
-        //return database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
-        //Perform the update on db and get num rows affedted
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
-        //if 1 or more rows were updated, notify all listeners the data at given URI has changed
-        if(rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Validate an update to hold in the write buffer. It is written later, where a failure
+     * can't reach the caller, so anything the table would reject fails now: columns it doesn't
+     * have and nulls in NOT NULL columns.
+     */
+    private static void validateHeldUpdate(ContentValues values) {
+        validateUpdate(values);
+        for (String key : values.keySet()) {
+            if (!PetEntry.COLUMN_PET_NAME.equals(key) && !PetEntry.COLUMN_PET_BREED.equals(key)
+                    && !PetEntry.COLUMN_PET_GENDER.equals(key)
+                    && !PetEntry.COLUMN_PET_WEIGHT.equals(key)) {
+                throw new IllegalArgumentException("Unknown pet column " + key);
+            }
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)
+                && values.getAsInteger(PetEntry.COLUMN_PET_GENDER) == null) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+    }
+
+    /**
+     * The photo column names a file only the provider writes, see {@link PetEntry#buildPhotoUri}
+     */
+    private static void validatePhoto(ContentValues values) {
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Pet photo is set through the photo URI");
         }
-        return rowsUpdated;
     }
 
 }
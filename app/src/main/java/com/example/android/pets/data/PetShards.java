@@ -0,0 +1,399 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of databases for the shelter network, one file per shelter, each opened by a
+ * {@link PetDbHelper} of its own so it has its own connections and write lock.
+ * Queries over every shelter run on a small thread pool and their pages are merged.
+ */
+final class PetShards {
+    private static final String FILE_PREFIX = "shelter_";
+    private static final String FILE_SUFFIX = ".db";
+    /**
+     * Shelters queried at the same time by a fan-out, the rest wait for a thread
+     */
+    private static final int FAN_OUT_THREADS = 4;
+    /**
+     * Every pet column, returned along with the shelter id when a fan-out has no projection
+     */
+    private static final String[] PET_COLUMNS = PetCache.ALL_COLUMNS;
+
+    /**
+     * Runs one shelter's part of a fan-out
+     */
+    interface ShardQuery {
+        Cursor query(SQLiteDatabase database, String[] projection);
+    }
+
+    private final Context mContext;
+    /** Helpers opened so far by shelter id, guarded by this. Kept open until {@link #close}. */
+    private final HashMap<Long, PetDbHelper> mHelpers = new HashMap<Long, PetDbHelper>();
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(FAN_OUT_THREADS,
+            FAN_OUT_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    PetShards(Context context) {
+        mContext = context;
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Return the helper for a shelter's database, creating the file on first write
+     */
+    synchronized PetDbHelper getHelper(long shelterId) {
+        PetDbHelper helper = mHelpers.get(shelterId);
+        if (helper == null) {
+            helper = new PetDbHelper(mContext, fileName(shelterId), PetDbHelper.Profile.THROUGHPUT);
+            mHelpers.put(shelterId, helper);
+        }
+        return helper;
+    }
+
+    /**
+     * Return the helper for a shelter's database if the shelter has one, otherwise null,
+     * so reading from a shelter that was never written to doesn't create its file
+     */
+    synchronized PetDbHelper findHelper(long shelterId) {
+        if (!mHelpers.containsKey(shelterId)
+                && !mContext.getDatabasePath(fileName(shelterId)).exists()) {
+            return null;
+        }
+        return getHelper(shelterId);
+    }
+
+    /**
+     * Close every shelter's database and stop the fan-out threads
+     */
+    synchronized void close() {
+        mExecutor.shutdownNow();
+        for (PetDbHelper helper : mHelpers.values()) {
+            helper.close();
+        }
+        mHelpers.clear();
+    }
+
+    private static String fileName(long shelterId) {
+        return FILE_PREFIX + shelterId + FILE_SUFFIX;
+    }
+
+    /**
+     * Return the id of every shelter that has a database file
+     */
+    List<Long> shelterIds() {
+        List<Long> ids = new ArrayList<Long>();
+        for (String name : mContext.databaseList()) {
+            if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            try {
+                ids.add(Long.parseLong(name.substring(FILE_PREFIX.length(),
+                        name.length() - FILE_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not one of ours, ie. a journal file
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Run a page query on every shelter in parallel, then merge the pages in sort order
+     * into one page of at most limit pets, each with its {@link ShelterEntry#COLUMN_SHELTER_ID}
+     *
+     * @param sort       the {@link PetEntry#QUERY_PARAMETER_SORT} value each page is sorted by
+     * @param projection columns to return, null for every pet column and the shelter id
+     */
+    Cursor fanOut(final ShardQuery query, String sort, String[] projection, int limit,
+                  CancellationSignal cancellationSignal) {
+        List<Long> ids = shelterIds();
+        final String[] columns = shelterColumns(projection, sort);
+        List<Future<Cursor>> futures = new ArrayList<Future<Cursor>>(ids.size());
+        for (final Long id : ids) {
+            futures.add(mExecutor.submit(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    Cursor cursor = query.query(getHelper(id).getReadableDatabase(), columns);
+                    // Fill the window here, on the pool thread
+                    cursor.getCount();
+                    return cursor;
+                }
+            }));
+        }
+        List<Cursor> cursors = new ArrayList<Cursor>(ids.size());
+        try {
+            for (Future<Cursor> future : futures) {
+                if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                cursors.add(get(future));
+            }
+            return merge(ids, cursors, sort, projection, limit);
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+            // After a failure, drop the shelters not read yet and close any that already ran
+            for (int i = cursors.size(); i < futures.size(); i++) {
+                Future<Cursor> future = futures.get(i);
+                if (!future.cancel(false)) {
+                    closeResult(future);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the columns to read from each shelter: the requested ones without the shelter id,
+     * plus the _id and sort column the merge compares by
+     */
+    private static String[] shelterColumns(String[] projection, String sort) {
+        LinkedHashSet<String> columns = new LinkedHashSet<String>();
+        columns.add(PetEntry._ID);
+        String sortColumn = sortColumn(sort);
+        if (sortColumn != null) {
+            columns.add(sortColumn);
+        }
+        for (String column : projection == null ? PET_COLUMNS : projection) {
+            if (!ShelterEntry.COLUMN_SHELTER_ID.equals(column)) {
+                columns.add(column);
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Return the column a {@link PetEntry#QUERY_PARAMETER_SORT} value sorts by, or null for _id
+     */
+    private static String sortColumn(String sort) {
+        if (PetEntry.SORT_NAME.equals(sort)) {
+            return PetEntry.COLUMN_PET_NAME;
+        } else if (PetEntry.SORT_BREED.equals(sort)) {
+            return PetEntry.COLUMN_PET_BREED;
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            return PetEntry.COLUMN_PET_WEIGHT;
+        }
+        return null;
+    }
+
+    private static void closeResult(Future<Cursor> future) {
+        try {
+            future.get().close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Failed, so it has no cursor
+        }
+    }
+
+    private static Cursor get(Future<Cursor> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * The current row of one shelter's page during a merge
+     */
+    private static final class Head {
+        final long shelterId;
+        final Cursor cursor;
+
+        Head(long shelterId, Cursor cursor) {
+            this.shelterId = shelterId;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * k-way merge of sorted pages, taking the smallest head each time
+     */
+    private static Cursor merge(List<Long> ids, List<Cursor> cursors, String sort,
+                                String[] projection, int limit) {
+        String[] columns = projection == null ? allColumns() : projection;
+        MergedCursor merged = new MergedCursor(columns, limit,
+                cursors.isEmpty() ? null : cursors.get(0));
+        if (cursors.isEmpty()) {
+            return merged;
+        }
+        // Every shelter ran the same query, so the columns are at the same positions in each
+        Cursor first = cursors.get(0);
+        String sortColumn = sortColumn(sort);
+        int keyIndex = sortColumn == null ? -1 : first.getColumnIndexOrThrow(sortColumn);
+        int idIndex = first.getColumnIndexOrThrow(PetEntry._ID);
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = ShelterEntry.COLUMN_SHELTER_ID.equals(columns[i])
+                    ? -1 : first.getColumnIndexOrThrow(columns[i]);
+        }
+        PriorityQueue<Head> heads = new PriorityQueue<Head>(cursors.size(),
+                comparator(sort, keyIndex, idIndex));
+        for (int i = 0; i < cursors.size(); i++) {
+            if (cursors.get(i).moveToFirst()) {
+                heads.add(new Head(ids.get(i), cursors.get(i)));
+            }
+        }
+        while (merged.getCount() < limit && !heads.isEmpty()) {
+            Head head = heads.poll();
+            MatrixCursor.RowBuilder row = merged.newRow();
+            for (int index : indexes) {
+                if (index < 0) {
+                    row.add(head.shelterId);
+                } else {
+                    row.add(value(head.cursor, index));
+                }
+            }
+            if (head.cursor.moveToNext()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Merged page that reports the SQL and database of a shelter's page to the slow query log,
+     * every shelter runs the same SQL
+     */
+    private static final class MergedCursor extends MatrixCursor
+            implements PetSlowQueryLog.TracedCursor {
+        private final String mSql;
+        private final SQLiteDatabase mDatabase;
+
+        MergedCursor(String[] columns, int capacity, Cursor shelterPage) {
+            super(columns, capacity);
+            if (shelterPage instanceof PetSlowQueryLog.TracedCursor) {
+                PetSlowQueryLog.TracedCursor traced = (PetSlowQueryLog.TracedCursor) shelterPage;
+                mSql = traced.getSql();
+                mDatabase = traced.getDatabase();
+            } else {
+                mSql = null;
+                mDatabase = null;
+            }
+        }
+
+        @Override
+        public String getSql() {
+            return mSql;
+        }
+
+        @Override
+        public SQLiteDatabase getDatabase() {
+            return mDatabase;
+        }
+    }
+
+    private static String[] allColumns() {
+        String[] columns = new String[PET_COLUMNS.length + 1];
+        columns[0] = ShelterEntry.COLUMN_SHELTER_ID;
+        System.arraycopy(PET_COLUMNS, 0, columns, 1, PET_COLUMNS.length);
+        return columns;
+    }
+
+    private static Object value(Cursor cursor, int index) {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(index);
+            default:
+                return cursor.getString(index);
+        }
+    }
+
+    /**
+     * Order heads the way each shelter's page is ordered, then by shelter so ties and
+     * unsorted pages come out in a stable order
+     */
+    private static Comparator<Head> comparator(final String sort, final int keyIndex,
+                                               final int idIndex) {
+        return new Comparator<Head>() {
+            @Override
+            public int compare(Head a, Head b) {
+                int result = compareKeys(a.cursor, b.cursor, sort, keyIndex);
+                if (result == 0) {
+                    result = compareLongs(a.shelterId, b.shelterId);
+                }
+                if (result == 0) {
+                    result = compareLongs(a.cursor.getLong(idIndex), b.cursor.getLong(idIndex));
+                }
+                return result;
+            }
+        };
+    }
+
+    private static int compareKeys(Cursor a, Cursor b, String sort, int index) {
+        if (PetEntry.SORT_NAME.equals(sort)) {
+            return compareText(a.getString(index), b.getString(index), true);
+        } else if (PetEntry.SORT_BREED.equals(sort)) {
+            // SQLite sorts null first
+            String breedA = a.isNull(index) ? null : a.getString(index);
+            String breedB = b.isNull(index) ? null : b.getString(index);
+            if (breedA == null || breedB == null) {
+                return breedA == null ? (breedB == null ? 0 : -1) : 1;
+            }
+            return compareText(breedA, breedB, false);
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            return compareLongs(a.getLong(index), b.getLong(index));
+        }
+        return 0;
+    }
+
+    /**
+     * Compare text the way SQLite's BINARY collation does, or NOCASE if ignoreCase is set.
+     * Both compare UTF-8 bytes, which orders like code points rather than like Java's UTF-16
+     * chars, and NOCASE only folds ASCII A-Z, unlike {@link String#CASE_INSENSITIVE_ORDER}.
+     */
+    static int compareText(String a, String b, boolean ignoreCase) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(j);
+            if (ignoreCase) {
+                codePointA = foldAscii(codePointA);
+                codePointB = foldAscii(codePointB);
+            }
+            if (codePointA != codePointB) {
+                return codePointA < codePointB ? -1 : 1;
+            }
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+        return compareLongs(a.length() - i, b.length() - j);
+    }
+
+    private static int foldAscii(int codePoint) {
+        return codePoint >= 'A' && codePoint <= 'Z' ? codePoint + ('a' - 'A') : codePoint;
+    }
+
+    static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
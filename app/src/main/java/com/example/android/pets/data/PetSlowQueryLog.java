@@ -0,0 +1,202 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.SlowQueryEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the most recent provider queries that ran over a time budget, along with their SQL
+ * and the plan SQLite chose for it, so scans that need an index can be found on real data.
+ */
+final class PetSlowQueryLog {
+    public static final String LOG_TAG = PetSlowQueryLog.class.getSimpleName();
+
+    /**
+     * Budget a query can take before it's logged, unless changed with {@link #setThresholdMs}
+     */
+    static final long DEFAULT_THRESHOLD_MS = 50;
+    /**
+     * Number of slow queries kept, older ones are dropped
+     */
+    private static final int CAPACITY = 32;
+
+    /**
+     * A cursor that knows the SQL it was read with and the database that ran it
+     */
+    interface TracedCursor {
+        String getSql();
+
+        SQLiteDatabase getDatabase();
+    }
+
+    /**
+     * Cursor factory for the database that gives every cursor it opens its own SQL, which
+     * covers database.query and SQLiteQueryBuilder alike
+     */
+    static final SQLiteDatabase.CursorFactory CURSOR_FACTORY = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                String editTable, SQLiteQuery query) {
+            // SQLiteQuery only exposes its SQL through toString
+            String sql = query.toString();
+            String prefix = "SQLiteQuery: ";
+            return new LoggedCursor(masterQuery, editTable, query,
+                    sql.startsWith(prefix) ? sql.substring(prefix.length()) : sql);
+        }
+    };
+
+    /**
+     * SQLiteCursor that keeps the SQL it was opened with, its database is already known
+     */
+    private static final class LoggedCursor extends SQLiteCursor implements TracedCursor {
+        private final String mSql;
+
+        LoggedCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query, String sql) {
+            super(driver, editTable, query);
+            mSql = sql;
+        }
+
+        @Override
+        public String getSql() {
+            return mSql;
+        }
+    }
+
+    /**
+     * One query over budget
+     */
+    private static final class Entry {
+        final long time;
+        final String uri;
+        final long durationMs;
+        final String sql;
+        final String arguments;
+        final String plan;
+
+        Entry(long time, String uri, long durationMs, String sql, String arguments, String plan) {
+            this.time = time;
+            this.uri = uri;
+            this.durationMs = durationMs;
+            this.sql = sql;
+            this.arguments = arguments;
+            this.plan = plan;
+        }
+    }
+
+    /** Oldest first, guarded by this */
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<Entry>(CAPACITY);
+    private volatile long mThresholdMs = DEFAULT_THRESHOLD_MS;
+
+    void setThresholdMs(long thresholdMs) {
+        mThresholdMs = thresholdMs;
+    }
+
+    /**
+     * Log a query that returned the cursor if it took longer than the threshold. The SQL and
+     * plan are only known for a {@link TracedCursor}, the plan is explained on the database
+     * that ran it. Only the types of the caller's selection arguments are kept, not their values.
+     */
+    void queryFinished(Cursor cursor, String uri, long durationNanos, String[] selectionArgs) {
+        long durationMs = durationNanos / 1000000;
+        if (durationMs < mThresholdMs) {
+            return;
+        }
+        String sql = null;
+        String plan = "";
+        if (cursor instanceof TracedCursor) {
+            TracedCursor traced = (TracedCursor) cursor;
+            sql = traced.getSql();
+            if (sql != null) {
+                plan = explain(traced.getDatabase(), sql);
+            }
+        }
+        Log.w(LOG_TAG, "Slow query on " + uri + " took " + durationMs + " ms: " + sql + " plan: " + plan);
+        Entry entry = new Entry(System.currentTimeMillis(), uri, durationMs, sql,
+                argumentsShape(selectionArgs), plan);
+        synchronized (this) {
+            if (mEntries.size() == CAPACITY) {
+                mEntries.removeFirst();
+            }
+            mEntries.addLast(entry);
+        }
+    }
+
+    /**
+     * Return a row of {@link SlowQueryEntry} columns per slow query kept, oldest first
+     */
+    synchronized Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(SlowQueryEntry.COLUMNS, mEntries.size());
+        for (Entry entry : mEntries) {
+            cursor.addRow(new Object[]{entry.time, entry.uri, entry.durationMs, entry.sql,
+                    entry.arguments, entry.plan});
+        }
+        return cursor;
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Slow queries (threshold " + mThresholdMs + " ms, last " + CAPACITY + "):");
+        for (Entry entry : mEntries) {
+            writer.println("  " + entry.uri + " " + entry.durationMs + " ms args=[" + entry.arguments
+                    + "]");
+            writer.println("    " + entry.sql);
+            writer.println("    plan: " + entry.plan);
+        }
+    }
+
+    /**
+     * Return the detail of each EXPLAIN QUERY PLAN row, ie. "SCAN TABLE pets; USE TEMP B-TREE
+     * FOR ORDER BY". Parameters are left unbound, which doesn't change the plan.
+     */
+    private static String explain(SQLiteDatabase database, String sql) {
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            try {
+                StringBuilder plan = new StringBuilder();
+                int detailColumnIndex = cursor.getColumnIndex("detail");
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append("; ");
+                    }
+                    plan.append(cursor.getString(detailColumnIndex));
+                }
+                return plan.toString();
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            return "unavailable: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Describe selection arguments by type only ie. "number, text"
+     */
+    private static String argumentsShape(String[] selectionArgs) {
+        if (selectionArgs == null) {
+            return "";
+        }
+        String[] types = new String[selectionArgs.length];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            String arg = selectionArgs[i];
+            if (arg == null) {
+                types[i] = "null";
+            } else if (TextUtils.isDigitsOnly(arg) && !arg.isEmpty()) {
+                types[i] = "number";
+            } else {
+                types[i] = "text";
+            }
+        }
+        return TextUtils.join(", ", types);
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Precompiled statements for the highest volume writes on the pets table.
+ * Statements belong to one open database and are rebuilt by {@link PetDbHelper} when it reopens.
+ */
+final class PetStatements {
+    public static final String LOG_TAG = PetStatements.class.getSimpleName();
+
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_NAME + " = ?, "
+            + PetEntry.COLUMN_PET_BREED + " = ?, "
+            + PetEntry.COLUMN_PET_GENDER + " = ?, "
+            + PetEntry.COLUMN_PET_WEIGHT + " = ? WHERE " + PetEntry._ID + " = ?";
+
+    private static final String SQL_DELETE = "DELETE FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry._ID + " = ?";
+
+    private final SQLiteDatabase mDatabase;
+    private final SQLiteStatement mInsert;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mDelete;
+
+    PetStatements(SQLiteDatabase database) {
+        mDatabase = database;
+        mInsert = database.compileStatement(SQL_INSERT);
+        mUpdate = database.compileStatement(SQL_UPDATE);
+        mDelete = database.compileStatement(SQL_DELETE);
+    }
+
+    /**
+     * Whether these statements were compiled against the given database
+     */
+    boolean isFor(SQLiteDatabase database) {
+        return mDatabase == database;
+    }
+
+    /**
+     * Whether the values hold every pet column and nothing else, so they can be bound
+     * to the full-row insert and update statements
+     */
+    static boolean hasAllColumns(ContentValues values) {
+        return values.size() == 4
+                && values.containsKey(PetEntry.COLUMN_PET_NAME)
+                && values.containsKey(PetEntry.COLUMN_PET_BREED)
+                && values.getAsInteger(PetEntry.COLUMN_PET_GENDER) != null
+                && values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT) != null;
+    }
+
+    /**
+     * Insert a pet, the values must pass {@link #hasAllColumns(ContentValues)}.
+     * Return the new row ID or -1 on failure, same as {@link SQLiteDatabase#insert}.
+     */
+    long insert(ContentValues values) {
+        // The write transaction is taken before the statement lock, so a thread waiting
+        // on the database never holds a statement another thread needs
+        PetMetrics.beginWrite(mDatabase);
+        try {
+            long id;
+            try {
+                synchronized (mInsert) {
+                    bindPet(mInsert, values);
+                    id = mInsert.executeInsert();
+                }
+            } catch (SQLException e) {
+                // A failed statement leaves nothing behind, so still let an enclosing
+                // batch commit the rows around it
+                Log.e(LOG_TAG, "Error inserting " + values, e);
+                id = -1;
+            }
+            mDatabase.setTransactionSuccessful();
+            return id;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Update every column of one pet, the values must pass {@link #hasAllColumns(ContentValues)}.
+     * Return the number of rows affected.
+     */
+    int update(long id, ContentValues values) {
+        PetMetrics.beginWrite(mDatabase);
+        try {
+            int rowsUpdated;
+            synchronized (mUpdate) {
+                bindPet(mUpdate, values);
+                mUpdate.bindLong(5, id);
+                rowsUpdated = mUpdate.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Delete one pet, return the number of rows affected
+     */
+    int delete(long id) {
+        PetMetrics.beginWrite(mDatabase);
+        try {
+            int rowsDeleted;
+            synchronized (mDelete) {
+                mDelete.bindLong(1, id);
+                rowsDeleted = mDelete.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    void close() {
+        mInsert.close();
+        mUpdate.close();
+        mDelete.close();
+    }
+
+    /**
+     * Bind name, breed, gender and weight to parameters 1-4
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        statement.bindString(1, values.getAsString(PetEntry.COLUMN_PET_NAME));
+        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, breed);
+        }
+        statement.bindLong(3, values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        statement.bindLong(4, values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the pets table to and from CSV or JSON. Both directions work a batch of rows
+ * at a time, so memory use doesn't grow with the size of the table.
+ */
+final class PetTransfer {
+    /**
+     * Rows read from the database or committed to it at a time
+     */
+    static final int BATCH_SIZE = 500;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Columns written by an export, in order. Imports ignore _id and give every pet a new one.
+     */
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT};
+
+    /**
+     * Receives each batch of imported rows
+     */
+    interface BatchInserter {
+        /**
+         * Insert the rows and return how many were inserted
+         */
+        int insert(ContentValues[] rows);
+    }
+
+    private PetTransfer() {
+    }
+
+    /**
+     * Return the MIME type for a format
+     */
+    static String mimeType(String format) {
+        return PetEntry.FORMAT_JSON.equals(format) ? "application/json" : "text/csv";
+    }
+
+    /**
+     * Write every pet to the stream and return the number written. Rows are read in _id
+     * order a batch at a time, so no read holds the database for the whole export.
+     */
+    static int exportPets(SQLiteDatabase database, String format, OutputStream out)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        boolean json = PetEntry.FORMAT_JSON.equals(format);
+        JsonWriter jsonWriter = null;
+        if (json) {
+            jsonWriter = new JsonWriter(writer);
+            jsonWriter.beginArray();
+        } else {
+            writeCsvRecord(writer, COLUMNS);
+        }
+        String[] record = new String[COLUMNS.length];
+        String[] args = new String[1];
+        long lastId = -1;
+        int rows = 0;
+        int batchCount;
+        do {
+            args[0] = String.valueOf(lastId);
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, COLUMNS, PetEntry._ID + ">?", args,
+                    null, null, PetEntry._ID + " ASC", String.valueOf(BATCH_SIZE));
+            try {
+                batchCount = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    if (json) {
+                        jsonWriter.beginObject();
+                        jsonWriter.name(PetEntry._ID).value(lastId);
+                        jsonWriter.name(PetEntry.COLUMN_PET_NAME).value(cursor.getString(1));
+                        jsonWriter.name(PetEntry.COLUMN_PET_BREED).value(cursor.getString(2));
+                        jsonWriter.name(PetEntry.COLUMN_PET_GENDER).value(cursor.getInt(3));
+                        jsonWriter.name(PetEntry.COLUMN_PET_WEIGHT).value(cursor.getInt(4));
+                        jsonWriter.endObject();
+                    } else {
+                        for (int i = 0; i < record.length; i++) {
+                            record[i] = cursor.getString(i);
+                        }
+                        writeCsvRecord(writer, record);
+                    }
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (batchCount == BATCH_SIZE);
+        if (json) {
+            jsonWriter.endArray();
+        }
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Read pets from the stream, handing them to the inserter a batch at a time.
+     * Return the number of pets inserted. A batch the inserter couldn't insert all of stops
+     * the import with an IllegalArgumentException.
+     */
+    static int importPets(InputStream in, String format, BatchInserter inserter)
+            throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        if (PetEntry.FORMAT_JSON.equals(format)) {
+            return importJson(new JsonReader(reader), inserter);
+        }
+        return importCsv(reader, inserter);
+    }
+
+    private static int importCsv(Reader reader, BatchInserter inserter) throws IOException {
+        List<String> fields = new ArrayList<String>();
+        if (!readCsvRecord(reader, fields)) {
+            return 0;
+        }
+        // Map the header to column positions, so columns can come in any order
+        String[] header = fields.toArray(new String[fields.size()]);
+        List<ContentValues> batch = new ArrayList<ContentValues>(BATCH_SIZE);
+        int rows = 0;
+        while (readCsvRecord(reader, fields)) {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < header.length && i < fields.size(); i++) {
+                putColumn(values, header[i], fields.get(i));
+            }
+            batch.add(values);
+            if (batch.size() == BATCH_SIZE) {
+                rows += flush(batch, inserter);
+            }
+        }
+        rows += flush(batch, inserter);
+        return rows;
+    }
+
+    private static int importJson(JsonReader reader, BatchInserter inserter) throws IOException {
+        List<ContentValues> batch = new ArrayList<ContentValues>(BATCH_SIZE);
+        int rows = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues values = new ContentValues();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                putColumn(values, name, reader.nextString());
+            }
+            reader.endObject();
+            batch.add(values);
+            if (batch.size() == BATCH_SIZE) {
+                rows += flush(batch, inserter);
+            }
+        }
+        reader.endArray();
+        rows += flush(batch, inserter);
+        return rows;
+    }
+
+    /**
+     * Put an imported value with its column's type. _id, unknown columns and null values are
+     * skipped, so the column gets its default.
+     */
+    private static void putColumn(ContentValues values, String column, String value) {
+        if (value == null) {
+            return;
+        }
+        if (PetEntry.COLUMN_PET_NAME.equals(column) || PetEntry.COLUMN_PET_BREED.equals(column)) {
+            values.put(column, value);
+        } else if (PetEntry.COLUMN_PET_GENDER.equals(column)
+                || PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+            try {
+                values.put(column, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + column + " " + value);
+            }
+        }
+    }
+
+    /**
+     * Insert the batch and empty it, return the number of rows inserted
+     */
+    private static int flush(List<ContentValues> batch, BatchInserter inserter) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int inserted = inserter.insert(batch.toArray(new ContentValues[batch.size()]));
+        if (inserted != batch.size()) {
+            throw new IllegalArgumentException("Could not insert " + (batch.size() - inserted)
+                    + " of " + batch.size() + " imported pets");
+        }
+        batch.clear();
+        return inserted;
+    }
+
+    /**
+     * Write one CSV record, quoting fields that hold a comma, quote or line break. A null is
+     * left empty and an empty string is written as "", so they read back apart.
+     */
+    private static void writeCsvRecord(Writer writer, String[] record) throws IOException {
+        for (int i = 0; i < record.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String field = record[i];
+            if (field == null) {
+                continue;
+            }
+            if (!field.isEmpty() && field.indexOf(',') < 0 && field.indexOf('"') < 0
+                    && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+                writer.write(field);
+            } else {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Read one CSV record into fields, an empty field that wasn't quoted as null.
+     * Return false at the end of the stream.
+     */
+    private static boolean readCsvRecord(Reader reader, List<String> fields) throws IOException {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        boolean read = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            read = true;
+            if (quoted) {
+                if (c != '"') {
+                    field.append((char) c);
+                    continue;
+                }
+                // A doubled quote is a literal quote, otherwise the quoted part ends
+                reader.mark(1);
+                if (reader.read() == '"') {
+                    field.append('"');
+                } else {
+                    reader.reset();
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                fields.add(toField(field, wasQuoted));
+                field.setLength(0);
+                wasQuoted = false;
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        if (!read) {
+            return false;
+        }
+        fields.add(toField(field, wasQuoted));
+        return true;
+    }
+
+    private static String toField(StringBuilder field, boolean wasQuoted) {
+        return field.length() == 0 && !wasQuoted ? null : field.toString();
+    }
+}
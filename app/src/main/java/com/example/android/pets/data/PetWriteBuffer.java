@@ -0,0 +1,143 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds write-behind updates in memory, merged per pet, until they are flushed in one
+ * transaction. A flush is started once the oldest held update is a delay old, or straight
+ * away once enough pets have updates waiting. Updates held when the process dies are lost,
+ * so the delay is the loss window.
+ */
+final class PetWriteBuffer {
+    /**
+     * Default delay before held updates are written
+     */
+    static final long DEFAULT_DELAY_MS = 250;
+    /**
+     * Number of pets with held updates that starts a flush without waiting for the delay
+     */
+    private static final int MAX_PENDING = 64;
+
+    /**
+     * Writes held updates to the database, on the buffer's own thread
+     */
+    interface Flusher {
+        void flushWrites();
+    }
+
+    /**
+     * Held values by pet _id, guarded by this. Values are replaced rather than changed,
+     * so a flush can tell whether a pet was updated again while it was being written.
+     */
+    private final HashMap<Long, ContentValues> mPending = new HashMap<Long, ContentValues>();
+    private boolean mScheduled;
+    private volatile long mDelayMs = DEFAULT_DELAY_MS;
+
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable;
+
+    PetWriteBuffer(final Flusher flusher) {
+        HandlerThread thread = new HandlerThread("PetWriteBuffer");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mFlushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PetWriteBuffer.this) {
+                    mScheduled = false;
+                }
+                flusher.flushWrites();
+            }
+        };
+    }
+
+    /**
+     * Set the loss window. 0 turns write-behind off, updates asking for it are written at once.
+     */
+    void setDelayMs(long delayMs) {
+        mDelayMs = delayMs;
+    }
+
+    boolean isEnabled() {
+        return mDelayMs > 0;
+    }
+
+    /**
+     * Hold an update to a pet, merged over any update already held for it
+     */
+    synchronized void put(long id, ContentValues values) {
+        ContentValues held = mPending.get(id);
+        ContentValues merged = held == null ? new ContentValues() : new ContentValues(held);
+        merged.putAll(values);
+        mPending.put(id, merged);
+        if (mPending.size() >= MAX_PENDING) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mScheduled = true;
+            mHandler.post(mFlushRunnable);
+        } else if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mDelayMs);
+        }
+    }
+
+    /**
+     * Return the values held for a pet, or null. The values must not be changed.
+     */
+    synchronized ContentValues get(long id) {
+        return mPending.get(id);
+    }
+
+    synchronized boolean isEmpty() {
+        return mPending.isEmpty();
+    }
+
+    /**
+     * Return a copy of every held update. They stay held, and readable, until passed to
+     * {@link #flushed} once their transaction commits.
+     */
+    synchronized Map<Long, ContentValues> snapshot() {
+        return new HashMap<Long, ContentValues>(mPending);
+    }
+
+    /**
+     * Drop updates that were written, unless the pet was updated again since the snapshot
+     */
+    synchronized void flushed(Map<Long, ContentValues> written) {
+        for (Map.Entry<Long, ContentValues> entry : written.entrySet()) {
+            if (mPending.get(entry.getKey()) == entry.getValue()) {
+                mPending.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Try the flush again after the delay, ie. after it failed
+     */
+    synchronized void retry() {
+        if (!mScheduled && !mPending.isEmpty()) {
+            mScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, Math.max(mDelayMs, DEFAULT_DELAY_MS));
+        }
+    }
+
+    /**
+     * Return the pet with the held values applied over it
+     */
+    static Pet apply(Pet pet, ContentValues values) {
+        String name = values.containsKey(PetEntry.COLUMN_PET_NAME)
+                ? values.getAsString(PetEntry.COLUMN_PET_NAME) : pet.name;
+        String breed = values.containsKey(PetEntry.COLUMN_PET_BREED)
+                ? values.getAsString(PetEntry.COLUMN_PET_BREED) : pet.breed;
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        return new Pet(pet.id, name, breed, gender == null ? pet.gender : gender,
+                weight == null ? pet.weight : weight, pet.photo);
+    }
+}
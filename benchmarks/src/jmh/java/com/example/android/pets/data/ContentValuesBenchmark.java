@@ -0,0 +1,58 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The checks every insert and update makes on its ContentValues before any SQL runs, and
+ * building the values the way the editor does
+ */
+@State(Scope.Thread)
+public class ContentValuesBenchmark {
+    private ContentValues mFullPet;
+    private ContentValues mPartialPet;
+
+    @Setup
+    public void setUp() {
+        mFullPet = new PetGenerator().next();
+        mPartialPet = new ContentValues();
+        mPartialPet.put(PetEntry.COLUMN_PET_NAME, "Toto");
+        mPartialPet.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+    }
+
+    @Benchmark
+    public ContentValues validateInsert() {
+        PetProvider.validateInsert(mFullPet);
+        return mFullPet;
+    }
+
+    @Benchmark
+    public ContentValues validateUpdate() {
+        PetProvider.validateUpdate(mPartialPet);
+        return mPartialPet;
+    }
+
+    /**
+     * Whether an insert or update can take the precompiled statement route
+     */
+    @Benchmark
+    public boolean hasAllColumns() {
+        return PetStatements.hasAllColumns(mFullPet);
+    }
+
+    @Benchmark
+    public ContentValues buildValues() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Toto");
+        values.put(PetEntry.COLUMN_PET_BREED, "Terrier");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+        return values;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading a page of the catalog out of a cursor into pets, as the list loader does for every
+ * page, against looking the column indexes up again for every row. The cursor is an in-memory
+ * {@link MatrixCursor}, so only the Java side of binding is measured, not the cursor window.
+ */
+@State(Scope.Thread)
+public class CursorBindingBenchmark {
+    private static final int PAGE_SIZE = 50;
+    private static final String[] PROJECTION = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO};
+
+    private MatrixCursor mPage;
+    private Pet mPet;
+
+    @Setup
+    public void setUp() {
+        mPage = new MatrixCursor(PROJECTION, PAGE_SIZE);
+        ContentValues[] pets = new PetGenerator().next(PAGE_SIZE);
+        for (int i = 0; i < pets.length; i++) {
+            mPage.addRow(new Object[]{i + 1, pets[i].getAsString(PetEntry.COLUMN_PET_NAME),
+                    pets[i].getAsString(PetEntry.COLUMN_PET_BREED),
+                    pets[i].getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    pets[i].getAsInteger(PetEntry.COLUMN_PET_WEIGHT), null});
+        }
+        mPet = new Pet(1, "Toto", "Terrier", PetEntry.GENDER_MALE, 7, null);
+    }
+
+    /**
+     * Column indexes looked up once per page
+     */
+    @Benchmark
+    public List<Pet> readPage() {
+        mPage.moveToPosition(-1);
+        return Pet.readAll(mPage);
+    }
+
+    /**
+     * Column indexes looked up for every row, like the adapter did before binding moved to
+     * the loader
+     */
+    @Benchmark
+    public List<Pet> readPageLookupPerRow() {
+        Cursor cursor = mPage;
+        cursor.moveToPosition(-1);
+        List<Pet> pets = new ArrayList<Pet>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            pets.add(new Pet(cursor.getLong(cursor.getColumnIndex(PetEntry._ID)),
+                    cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME)),
+                    cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED)),
+                    cursor.getInt(cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER)),
+                    cursor.getInt(cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT)),
+                    cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO))));
+        }
+        return pets;
+    }
+
+    /**
+     * A cache hit of a single pet query, answered without SQLite
+     */
+    @Benchmark
+    public MatrixCursor cachedPetCursor() {
+        return PetCache.toCursor(mPet, PROJECTION);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Matching the URIs of the most common provider calls with {@link PetProvider#sUriMatcher}.
+ * Each URI is parsed from a string in setup, like a URI that arrived through a binder call,
+ * so the first match also pays for splitting its path into segments.
+ */
+@State(Scope.Thread)
+public class UriMatcherBenchmark {
+    private String mPetsUri;
+    private String mPetUri;
+    private String mPageUri;
+    private String mSearchUri;
+    private String mShelterPetUri;
+
+    @Setup
+    public void setUp() {
+        mPetsUri = PetEntry.CONTENT_URI.toString();
+        mPetUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 4242).toString();
+        mPageUri = PetEntry.buildPageUri(PetEntry.buildCatalogUri(PetEntry.SORT_NAME,
+                PetEntry.GENDER_FEMALE, 5, 30, null), "Bella", 4242, 50).toString();
+        mSearchUri = PetEntry.buildSearchUri("lab ret").toString();
+        mShelterPetUri = ContentUris.withAppendedId(ShelterEntry.buildPetsUri(7), 4242).toString();
+    }
+
+    @Benchmark
+    public int matchPets() {
+        return PetProvider.sUriMatcher.match(Uri.parse(mPetsUri));
+    }
+
+    @Benchmark
+    public int matchPetId() {
+        return PetProvider.sUriMatcher.match(Uri.parse(mPetUri));
+    }
+
+    @Benchmark
+    public int matchPage() {
+        return PetProvider.sUriMatcher.match(Uri.parse(mPageUri));
+    }
+
+    @Benchmark
+    public int matchSearch() {
+        return PetProvider.sUriMatcher.match(Uri.parse(mSearchUri));
+    }
+
+    @Benchmark
+    public int matchShelterPetId() {
+        return PetProvider.sUriMatcher.match(Uri.parse(mShelterPetUri));
+    }
+
+    /**
+     * Parsing alone, to subtract from the matches above
+     */
+    @Benchmark
+    public int parsePetId() {
+        return Uri.parse(mPetUri).getPathSegments().size();
+    }
+}